@@ -0,0 +1,48 @@
+package com.ullink.slack.simpleslackapi.impl;
+
+import com.ullink.slack.simpleslackapi.SlackAttachment;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes an attachment to the text posted along with a message, fields included.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AttachmentFormatterBenchmark
+{
+    private SlackAttachment attachment;
+
+    @Setup
+    public void setUp()
+    {
+        attachment = new SlackAttachment("Provisioned", "Provisioned lobby-3 on coord-eu-1", "lobby-3 is up", "Network event");
+        for (int i = 0; i < 8; i++)
+        {
+            attachment.addField("Resource " + i, i + " / 16 used", true);
+        }
+        attachment.addMarkdownIn("text");
+        attachment.addMarkdownIn("fields");
+    }
+
+    @Benchmark
+    public String encodeAttachments()
+    {
+        // the encoded list is only ever used through its text
+        return SlackJSONAttachmentFormatter.encodeAttachments(attachment).toString();
+    }
+}
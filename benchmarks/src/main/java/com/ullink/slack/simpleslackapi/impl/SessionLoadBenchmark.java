@@ -0,0 +1,74 @@
+package com.ullink.slack.simpleslackapi.impl;
+
+import com.ullink.slack.simpleslackapi.SlackChannel;
+import com.ullink.slack.simpleslackapi.SlackReply;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives a session connected to a {@link SlackStandIn}, through the Web API and the websocket,
+ * with the given latency added to every Web API call. Rate limiting is disabled so that the
+ * session itself is the bottleneck.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class SessionLoadBenchmark
+{
+    @Param({ "0", "20" })
+    private long                      latencyMillis;
+
+    private SlackStandIn              standIn;
+    private SlackWebSocketSessionImpl session;
+    private SlackChannel              channel;
+
+    @Setup
+    public void setUp() throws Exception
+    {
+        standIn = new SlackStandIn(1000);
+        standIn.setLatency(latencyMillis, TimeUnit.MILLISECONDS);
+        session = (SlackWebSocketSessionImpl) SlackSessionFactory.getSlackSessionBuilder("xoxb-benchmark")
+            .withApiBaseUrl(standIn.getApiBaseUrl())
+            .withRateLimiting(false)
+            .withMaxConnectionsPerRoute(16)
+            .build();
+        session.connect();
+        channel = session.findChannelById("C1");
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        session.disconnect();
+        standIn.close();
+    }
+
+    @Benchmark
+    public SlackReply postMessage() throws Exception
+    {
+        return session.sendMessage(channel, "lobby-3 provisioned on coord-eu-1", null, "playpen", null).getReplyFuture().get(10, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    public SlackReply websocketMessage() throws Exception
+    {
+        return session.sendMessageOverWebSocket(channel, "lobby-3 provisioned on coord-eu-1", null).getReplyFuture().get(10, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,47 @@
+package com.ullink.slack.simpleslackapi.impl;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses rtm.start answers of growing workspaces, from the reader to the built directory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SessionStatusParserBenchmark
+{
+    @Param({ "1000", "10000", "50000" })
+    private int    users;
+
+    private String payload;
+
+    @Setup
+    public void setUp()
+    {
+        payload = SlackFixtures.sessionStatusPayload(users);
+    }
+
+    @Benchmark
+    public SlackSessionDirectory parse() throws Exception
+    {
+        SlackJSONSessionStatusParser parser = new SlackJSONSessionStatusParser(new StringReader(payload));
+        parser.parse();
+        return parser.getDirectory();
+    }
+}
@@ -0,0 +1,103 @@
+package com.ullink.slack.simpleslackapi.impl;
+
+import com.ullink.slack.simpleslackapi.SlackMessage;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Feeds the frames a session receives most often to its websocket handler. The session is never
+ * connected and its directory is filled from a synthetic roster so that messages resolve their
+ * channel and sender.
+ * <p>
+ * Nothing drains the dispatcher lanes here: a message handed to them would fill them within a
+ * few milliseconds, after which the queue-full drop would be measured instead. Subscribed
+ * messages are therefore measured up to the dispatch, by classifying, parsing and decoding them
+ * the way the session does, and only frames the session answers inline go through its handler.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WebSocketFrameBenchmark
+{
+    private static final String       MESSAGE_FRAME = "{\"type\":\"message\",\"channel\":\"C1\",\"user\":\"U12\",\"text\":\"<@U0> list\",\"ts\":\"1461762212.000002\",\"team\":\"T0\"}";
+    private static final String       PONG_FRAME    = "{\"type\":\"pong\",\"reply_to\":42}";
+    private static final String       REPLY_FRAME   = "{\"ok\":true,\"reply_to\":7,\"ts\":\"1461762212.000003\",\"text\":\"done\"}";
+    private static final String       TYPING_FRAME  = "{\"type\":\"user_typing\",\"channel\":\"C1\",\"user\":\"U12\"}";
+    private static final String       OTHER_FRAME   = "{\"type\":\"message\",\"channel\":\"C2\",\"user\":\"U12\",\"text\":\"<@U0> list\",\"ts\":\"1461762212.000004\",\"team\":\"T0\"}";
+
+    private SlackWebSocketSessionImpl session;
+    private SlackFrameClassifier      classifier;
+
+    @Setup
+    public void setUp() throws Exception
+    {
+        session = (SlackWebSocketSessionImpl) SlackSessionFactory.getSlackSessionBuilder("xoxb-benchmark").build();
+        SlackJSONSessionStatusParser parser = new SlackJSONSessionStatusParser(new StringReader(SlackFixtures.sessionStatusPayload(1000)));
+        parser.parse();
+        session.publishDirectory(parser.getDirectory());
+        classifier = new SlackFrameClassifier();
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        session.disconnect();
+    }
+
+    // what the session does with a subscribed message before handing it to the dispatcher
+    @Benchmark
+    public SlackMessage message() throws ParseException
+    {
+        if (!classifier.classify(MESSAGE_FRAME) || classifier.getType() != SlackFrameClassifier.FrameType.MESSAGE)
+        {
+            throw new IllegalStateException("not classified as a message");
+        }
+        JSONObject object = (JSONObject) new JSONParser().parse(MESSAGE_FRAME);
+        return SlackJSONMessageParser.decode(session, object);
+    }
+
+    @Benchmark
+    public void pong()
+    {
+        session.onMessage(PONG_FRAME);
+    }
+
+    @Benchmark
+    public void reply()
+    {
+        session.onMessage(REPLY_FRAME);
+    }
+
+    // an event type the session drops without parsing it
+    @Benchmark
+    public void ignored()
+    {
+        session.onMessage(TYPING_FRAME);
+    }
+
+    // a message in a channel nobody subscribed to, dropped without parsing it; no subscription is
+    // registered, so that nothing reaches the dispatcher
+    @Benchmark
+    public void unsubscribedChannel()
+    {
+        session.onMessage(OTHER_FRAME);
+    }
+}
@@ -0,0 +1,68 @@
+package io.playpen.plugin.slack;
+
+import com.ullink.slack.simpleslackapi.SlackChannel;
+import com.ullink.slack.simpleslackapi.SlackMessage;
+import com.ullink.slack.simpleslackapi.SlackUser;
+import com.ullink.slack.simpleslackapi.impl.SlackFixtures;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Routes commands which answer without going to the network through the plugin. Messages of other
+ * channels, or not addressed to the plugin, are filtered by its session subscription and never
+ * reach it. Answers land in an outbound queue which is never started, so nothing is sent.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandRoutingBenchmark {
+    private SlackPlugin plugin;
+    private SlackMessage help;
+    private SlackMessage unknown;
+
+    @Setup
+    public void setUp() throws Exception {
+        SlackChannel channel = SlackFixtures.channel("C1", "playpen-notices");
+        SlackUser self = SlackFixtures.user("U0", "playpen");
+        SlackUser sender = SlackFixtures.user("U12", "user12");
+
+        // the plugin is normally wired up by onStart, which needs a running network
+        plugin = new SlackPlugin();
+        set("channel", channel);
+        set("user", self);
+        set("outbound", new OutboundMessageQueue(null, channel, 1024, OutboundMessageQueue.OverflowPolicy.DROP_OLDEST));
+
+        help = SlackFixtures.message(channel, sender, "<@U0> help");
+        unknown = SlackFixtures.message(channel, sender, "<@U0> reboot everything");
+    }
+
+    private void set(String name, Object value) throws ReflectiveOperationException {
+        Field field = SlackPlugin.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(plugin, value);
+    }
+
+    @Benchmark
+    public void help() {
+        plugin.onMessage(help);
+    }
+
+    @Benchmark
+    public void unknownCommand() {
+        plugin.onMessage(unknown);
+    }
+}
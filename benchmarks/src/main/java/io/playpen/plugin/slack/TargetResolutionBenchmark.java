@@ -0,0 +1,79 @@
+package io.playpen.plugin.slack;
+
+import io.playpen.core.coordinator.network.LocalCoordinator;
+import io.playpen.core.coordinator.network.Server;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolves command targets over a synthetic network, for each shape of server pattern the index
+ * distinguishes: a literal name, a prefix and a regex which has to be matched against every server.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TargetResolutionBenchmark {
+    private static final int COORDINATORS = 20;
+
+    @Param({ "1000", "5000", "20000" })
+    private int servers;
+
+    private ServerTargetIndex index;
+
+    @Setup
+    public void setUp() {
+        List<LocalCoordinator> coordinators = new ArrayList<>();
+        for(int i = 0; i < COORDINATORS; ++i) {
+            LocalCoordinator coord = new LocalCoordinator();
+            coord.setUuid(UUID.randomUUID().toString());
+            coord.setName("coord-" + i);
+            coord.setEnabled(true);
+            coordinators.add(coord);
+        }
+
+        for(int i = 0; i < servers; ++i) {
+            LocalCoordinator coord = coordinators.get(i % COORDINATORS);
+            Server server = new Server();
+            server.setUuid(UUID.randomUUID().toString());
+            server.setName((i % 3 == 0 ? "lobby-" : "game-") + i);
+            server.setCoordinator(coord);
+            coord.getServers().put(server.getUuid(), server);
+        }
+
+        index = new ServerTargetIndex(new PatternCache(64, 1000000));
+        index.rebuild(coordinators);
+    }
+
+    @Benchmark
+    public Map<String, List<String>> literal() {
+        return index.resolve("coord-.*", "lobby-42");
+    }
+
+    @Benchmark
+    public Map<String, List<String>> prefix() {
+        return index.resolve("coord-.*", "lobby-1.*");
+    }
+
+    @Benchmark
+    public Map<String, List<String>> regex() {
+        return index.resolve("coord-1[0-9]", "(lobby|game)-[0-9]*7");
+    }
+}
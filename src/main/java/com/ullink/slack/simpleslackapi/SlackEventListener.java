@@ -0,0 +1,6 @@
+package com.ullink.slack.simpleslackapi;
+
+public interface SlackEventListener<T>
+{
+    void onEvent(T event);
+}
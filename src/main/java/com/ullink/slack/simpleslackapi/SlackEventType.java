@@ -0,0 +1,29 @@
+package com.ullink.slack.simpleslackapi;
+
+/**
+ * Kind of event a subscription registers interest in, typed by what its listener receives.
+ */
+public final class SlackEventType<T>
+{
+    public static final SlackEventType<SlackMessage>     MESSAGE      = new SlackEventType<>("message");
+
+    public static final SlackEventType<SlackGroupJoined> GROUP_JOINED = new SlackEventType<>("group_joined");
+
+    private final String                                 name;
+
+    private SlackEventType(String name)
+    {
+        this.name = name;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    @Override
+    public String toString()
+    {
+        return name;
+    }
+}
@@ -0,0 +1,95 @@
+package com.ullink.slack.simpleslackapi;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with power of two microsecond buckets. Recording never allocates,
+ * percentiles are reported as the upper bound of the bucket they fall in.
+ */
+public class SlackLatencyHistogram
+{
+    // bucket 0 counts values below 1us, bucket i counts values in [2^(i-1), 2^i) us
+    private static final int BUCKETS = 40;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder       count  = new LongAdder();
+    private final LongAdder       sum    = new LongAdder();
+    private final AtomicLong      max    = new AtomicLong();
+
+    public void record(long duration, TimeUnit unit)
+    {
+        long micros = unit.toMicros(duration);
+        if (micros < 0)
+        {
+            micros = 0;
+        }
+        int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        counts.incrementAndGet(bucket);
+        count.increment();
+        sum.add(micros);
+        long currentMax = max.get();
+        while (micros > currentMax && !max.compareAndSet(currentMax, micros))
+        {
+            currentMax = max.get();
+        }
+    }
+
+    public void recordNanos(long nanos)
+    {
+        record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public long getCount()
+    {
+        return count.sum();
+    }
+
+    public long getMaxMicros()
+    {
+        return max.get();
+    }
+
+    public long getMeanMicros()
+    {
+        long total = count.sum();
+        return total == 0 ? 0 : sum.sum() / total;
+    }
+
+    /**
+     * Returns an upper bound of the given percentile (0 to 100) in microseconds.
+     */
+    public long getPercentileMicros(double percentile)
+    {
+        long total = count.sum();
+        if (total == 0)
+        {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            seen += counts.get(i);
+            if (seen >= rank)
+            {
+                return Math.min(i == 0 ? 0 : 1L << i, max.get());
+            }
+        }
+        return max.get();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "count=" + getCount() + " mean=" + formatMicros(getMeanMicros()) + " p50=" + formatMicros(getPercentileMicros(50)) + " p90="
+            + formatMicros(getPercentileMicros(90)) + " p99=" + formatMicros(getPercentileMicros(99)) + " max=" + formatMicros(getMaxMicros());
+    }
+
+    private static String formatMicros(long micros)
+    {
+        return micros < 1000 ? micros + "us" : micros / 1000 + "ms";
+    }
+}
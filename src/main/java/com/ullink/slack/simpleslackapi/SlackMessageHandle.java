@@ -1,5 +1,6 @@
 package com.ullink.slack.simpleslackapi;
 
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
 public interface SlackMessageHandle
@@ -7,9 +8,13 @@ public interface SlackMessageHandle
     // the id given to the message sent
     long getMessageId();
 
-    // server response
+    // server response, null until the reply future completes
     SlackReply getSlackReply();
 
+    // completed with the server response, or exceptionally if the message could not be delivered;
+    // Web API calls are made in the background, so it is usually still pending when the handle is returned
+    CompletableFuture<SlackReply> getReplyFuture();
+
     boolean isAcked();
 
     void waitForReply(long timeout, TimeUnit unit);
@@ -0,0 +1,76 @@
+package com.ullink.slack.simpleslackapi;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Named counters, gauges and latency histograms describing the activity of a session. Components
+ * look their metrics up once and keep the reference, so recording is a plain increment.
+ */
+public class SlackMetrics
+{
+    private final ConcurrentMap<String, LongAdder>             counters   = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongSupplier>          gauges     = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, SlackLatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+    public LongAdder counter(String name)
+    {
+        LongAdder counter = counters.get(name);
+        if (counter == null)
+        {
+            counter = counters.computeIfAbsent(name, k -> new LongAdder());
+        }
+        return counter;
+    }
+
+    public SlackLatencyHistogram histogram(String name)
+    {
+        SlackLatencyHistogram histogram = histograms.get(name);
+        if (histogram == null)
+        {
+            histogram = histograms.computeIfAbsent(name, k -> new SlackLatencyHistogram());
+        }
+        return histogram;
+    }
+
+    public void gauge(String name, LongSupplier supplier)
+    {
+        gauges.put(name, supplier);
+    }
+
+    // current value of a counter or gauge, 0 if nothing is registered under that name
+    public long get(String name)
+    {
+        LongAdder counter = counters.get(name);
+        if (counter != null)
+        {
+            return counter.sum();
+        }
+        LongSupplier gauge = gauges.get(name);
+        return gauge != null ? gauge.getAsLong() : 0;
+    }
+
+    public SortedMap<String, Long> snapshot()
+    {
+        SortedMap<String, Long> snapshot = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : counters.entrySet())
+        {
+            snapshot.put(entry.getKey(), entry.getValue().sum());
+        }
+        for (Map.Entry<String, LongSupplier> entry : gauges.entrySet())
+        {
+            snapshot.put(entry.getKey(), entry.getValue().getAsLong());
+        }
+        return snapshot;
+    }
+
+    public SortedMap<String, SlackLatencyHistogram> histograms()
+    {
+        return new TreeMap<>(histograms);
+    }
+}
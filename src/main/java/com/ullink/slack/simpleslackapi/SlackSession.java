@@ -23,7 +23,10 @@ public interface SlackSession
 
     SlackBot findBotById(String botId);
 
-    void connect();
+    // returns false if the first attempt failed, the session may still be reconnecting in the background
+    boolean connect();
+
+    void disconnect();
 
     SlackMessageHandle deleteMessage(String timeStamp, SlackChannel channel);
 
@@ -31,10 +34,19 @@ public interface SlackSession
 
     SlackMessageHandle updateMessage(String timeStamp, SlackChannel channel, String message);
 
+    SlackMessageHandle uploadSnippet(SlackChannel channel, String content, String title);
+
     SlackMessageHandle sendMessageOverWebSocket(SlackChannel channel, String message, SlackAttachment attachment);
 
     void addMessageListener(SlackMessageListener listenerToAdd);
 
     void removeMessageListener(SlackMessageListener listenerToRemove);
 
+    // the listener of the subscription only receives the events matching it
+    void subscribe(SlackSubscription<?> subscription);
+
+    void unsubscribe(SlackSubscription<?> subscription);
+
+    SlackMetrics getMetrics();
+
 }
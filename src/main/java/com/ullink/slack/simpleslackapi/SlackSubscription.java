@@ -0,0 +1,96 @@
+package com.ullink.slack.simpleslackapi;
+
+/**
+ * Interest of a listener in the events of one type, optionally restricted to a channel and, for
+ * messages, to those whose text starts with a prefix such as a mention. Sessions index
+ * subscriptions by type and channel so that events nobody subscribed to cost nothing.
+ */
+public final class SlackSubscription<T>
+{
+    private final SlackEventType<T>     type;
+    private final String                channelId;
+    private final String                prefix;
+    private final boolean               ignoreCase;
+    private final SlackEventListener<T> listener;
+
+    private SlackSubscription(SlackSubscriptionBuilder<T> builder, SlackEventListener<T> listener)
+    {
+        this.type = builder.type;
+        this.channelId = builder.channelId;
+        this.prefix = builder.prefix;
+        this.ignoreCase = builder.ignoreCase;
+        this.listener = listener;
+    }
+
+    public static <T> SlackSubscriptionBuilder<T> getSubscriptionBuilder(SlackEventType<T> type)
+    {
+        return new SlackSubscriptionBuilder<>(type);
+    }
+
+    public SlackEventType<T> getType()
+    {
+        return type;
+    }
+
+    // null when events of every channel are wanted
+    public String getChannelId()
+    {
+        return channelId;
+    }
+
+    public SlackEventListener<T> getListener()
+    {
+        return listener;
+    }
+
+    /**
+     * Returns whether a message with that text is wanted. Always true without a prefix, events
+     * other than messages are given a null text.
+     */
+    public boolean acceptsText(String text)
+    {
+        if (prefix == null)
+        {
+            return true;
+        }
+        return text != null && text.regionMatches(ignoreCase, 0, prefix, 0, prefix.length());
+    }
+
+    public static class SlackSubscriptionBuilder<T>
+    {
+        private final SlackEventType<T> type;
+        private String                  channelId;
+        private String                  prefix;
+        private boolean                 ignoreCase;
+
+        private SlackSubscriptionBuilder(SlackEventType<T> type)
+        {
+            this.type = type;
+        }
+
+        public SlackSubscriptionBuilder<T> withChannel(String channelId)
+        {
+            this.channelId = channelId;
+            return this;
+        }
+
+        // only messages whose text starts with the prefix are delivered
+        public SlackSubscriptionBuilder<T> withPrefix(String prefix, boolean ignoreCase)
+        {
+            this.prefix = prefix;
+            this.ignoreCase = ignoreCase;
+            return this;
+        }
+
+        // only messages starting with a mention of the user are delivered
+        public SlackSubscriptionBuilder<T> withMention(String userId)
+        {
+            return withPrefix("<@" + userId + ">", true);
+        }
+
+        public SlackSubscription<T> build(SlackEventListener<T> listener)
+        {
+            return new SlackSubscription<>(this, listener);
+        }
+    }
+}
@@ -3,89 +3,96 @@ package com.ullink.slack.simpleslackapi.impl;
 import com.ullink.slack.simpleslackapi.*;
 
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
 
 abstract class AbstractSlackSessionImpl implements SlackSession
 {
 
-    protected Map<String, SlackChannel> channels         = new HashMap<>();
-    protected Map<String, SlackUser>    users            = new HashMap<>();
-    protected Map<String, SlackBot>     bots             = new HashMap<>();
+    // immutable snapshot, replaced as a whole on connection and copied on write by incremental events
+    private final AtomicReference<SlackSessionDirectory> directory = new AtomicReference<>(SlackSessionDirectory.EMPTY);
 
-    protected Set<SlackMessageListener> messageListeners = new HashSet<>();
+    protected Set<SlackMessageListener>       messageListeners = new CopyOnWriteArraySet<>();
+
+    // replaced as a whole on every change, read without locking when routing events
+    protected volatile SlackSubscriptionTable subscriptions    = SlackSubscriptionTable.EMPTY;
+
+    protected final SlackMetrics              metrics          = new SlackMetrics();
+
+    protected SlackSessionDirectory directory()
+    {
+        return directory.get();
+    }
+
+    protected void publishDirectory(SlackSessionDirectory newDirectory)
+    {
+        directory.set(newDirectory);
+    }
+
+    protected void updateDirectory(UnaryOperator<SlackSessionDirectory> update)
+    {
+        directory.updateAndGet(update);
+    }
+
+    @Override
+    public SlackMetrics getMetrics()
+    {
+        return metrics;
+    }
 
     @Override
     public Collection<SlackChannel> getChannels()
     {
-        return new ArrayList<>(channels.values());
+        return new ArrayList<>(directory().getChannels());
     }
 
     @Override
     public Collection<SlackUser> getUsers()
     {
-        return new ArrayList<>(users.values());
+        return new ArrayList<>(directory().getUsers());
     }
 
     @Override
     public Collection<SlackBot> getBots()
     {
-        return new ArrayList<>(bots.values());
+        return new ArrayList<>(directory().getBots());
     }
 
     @Override
     public SlackChannel findChannelByName(String channelName)
     {
-        for (SlackChannel channel : channels.values())
-        {
-            if (channelName.equals(channel.getName()))
-            {
-                return channel;
-            }
-        }
-        return null;
+        return directory().findChannelByName(channelName);
     }
 
     @Override
     public SlackChannel findChannelById(String channelId)
     {
-        return channels.get(channelId);
+        return directory().findChannelById(channelId);
     }
 
     @Override
     public SlackUser findUserById(String userId)
     {
-        return users.get(userId);
+        return directory().findUserById(userId);
     }
 
     @Override
     public SlackUser findUserByUserName(String userName)
     {
-        for (SlackUser user : users.values())
-        {
-            if (userName.equals(user.getUserName()))
-            {
-                return user;
-            }
-        }
-        return null;
+        return directory().findUserByUserName(userName);
     }
 
     @Override
     public SlackUser findUserByEmail(String userMail)
     {
-        for (SlackUser user : users.values())
-        {
-            if (userMail.equals(user.getUserMail()))
-            {
-                return user;
-            }
-        }
-        return null;
+        return directory().findUserByEmail(userMail);
     }
 
     @Override
     public SlackBot findBotById(String botId)
     {
-        return bots.get(botId);
+        return directory().findBotById(botId);
     }
 
     @Override
@@ -97,7 +104,19 @@ abstract class AbstractSlackSessionImpl implements SlackSession
     @Override
     public void removeMessageListener(SlackMessageListener listenerToRemove)
     {
-        messageListeners.add(listenerToRemove);
+        messageListeners.remove(listenerToRemove);
+    }
+
+    @Override
+    public synchronized void subscribe(SlackSubscription<?> subscription)
+    {
+        subscriptions = subscriptions.with(subscription);
+    }
+
+    @Override
+    public synchronized void unsubscribe(SlackSubscription<?> subscription)
+    {
+        subscriptions = subscriptions.without(subscription);
     }
 
 }
@@ -0,0 +1,144 @@
+package com.ullink.slack.simpleslackapi.impl;
+
+import com.ullink.slack.simpleslackapi.SlackLatencyHistogram;
+import com.ullink.slack.simpleslackapi.SlackMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Brings the websocket connection back when it is lost. Attempts are scheduled with an
+ * exponential, jittered backoff so no thread is parked while waiting, and a healthy connection is
+ * never torn down.
+ */
+class SlackConnectionSupervisor
+{
+    private static final Logger             LOGGER = LoggerFactory.getLogger(SlackConnectionSupervisor.class);
+
+    interface Connector
+    {
+        void connect() throws Exception;
+    }
+
+    private final Connector                 connector;
+    private final ScheduledExecutorService  scheduler;
+    private final long                      initialBackoffMillis;
+    private final long                      maxBackoffMillis;
+
+    private int                             attempt;
+    private ScheduledFuture<?>              pendingReconnect;
+    private boolean                         stopped;
+    private volatile long                   connectedSince;
+    private long                            disconnectedAt;
+
+    private final LongAdder                 reconnects;
+    private final LongAdder                 failedAttempts;
+    private final SlackLatencyHistogram     timeToReconnect;
+
+    SlackConnectionSupervisor(Connector connector, ScheduledExecutorService scheduler, long initialBackoffMillis, long maxBackoffMillis, SlackMetrics metrics)
+    {
+        this.connector = connector;
+        this.scheduler = scheduler;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.reconnects = metrics.counter("connection.reconnects");
+        this.failedAttempts = metrics.counter("connection.reconnect.failures");
+        this.timeToReconnect = metrics.histogram("connection.reconnect.time");
+        metrics.gauge("connection.uptime.seconds", () -> {
+            long since = connectedSince;
+            return since == 0 ? 0 : TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - since);
+        });
+    }
+
+    synchronized void onConnected()
+    {
+        long now = System.nanoTime();
+        attempt = 0;
+        connectedSince = now;
+        if (disconnectedAt != 0)
+        {
+            reconnects.increment();
+            timeToReconnect.recordNanos(now - disconnectedAt);
+            disconnectedAt = 0;
+        }
+    }
+
+    /**
+     * Schedules a reconnection, unless one is already pending.
+     */
+    synchronized void onConnectionLost(String reason)
+    {
+        if (stopped || pendingReconnect != null)
+        {
+            return;
+        }
+        LOGGER.warn("slack connection lost : " + reason);
+        connectedSince = 0;
+        if (disconnectedAt == 0)
+        {
+            disconnectedAt = System.nanoTime();
+        }
+        scheduleAttempt();
+    }
+
+    private void scheduleAttempt()
+    {
+        long backoff = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(attempt, 20));
+        // keep at least half of the backoff so a flapping connection still slows down
+        long delay = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+        attempt++;
+        LOGGER.info("reconnecting to slack in " + delay + "ms (attempt " + attempt + ")");
+        pendingReconnect = scheduler.schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                attemptReconnect();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void attemptReconnect()
+    {
+        synchronized (this)
+        {
+            pendingReconnect = null;
+            if (stopped)
+            {
+                return;
+            }
+        }
+        try
+        {
+            connector.connect();
+        }
+        catch (Exception e)
+        {
+            failedAttempts.increment();
+            LOGGER.warn("unable to reconnect to slack", e);
+            synchronized (this)
+            {
+                if (!stopped && pendingReconnect == null)
+                {
+                    scheduleAttempt();
+                }
+            }
+        }
+    }
+
+    synchronized void stop()
+    {
+        stopped = true;
+        connectedSince = 0;
+        if (pendingReconnect != null)
+        {
+            pendingReconnect.cancel(false);
+            pendingReconnect = null;
+        }
+    }
+}
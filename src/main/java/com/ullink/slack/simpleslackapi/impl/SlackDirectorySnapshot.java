@@ -0,0 +1,194 @@
+package com.ullink.slack.simpleslackapi.impl;
+
+import com.ullink.slack.simpleslackapi.SlackBot;
+import com.ullink.slack.simpleslackapi.SlackChannel;
+import com.ullink.slack.simpleslackapi.SlackUser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Compact binary copy of a session directory kept on disk, so that a session can start from the
+ * roster it saw last instead of downloading it again. The snapshot carries a format version, the
+ * team it belongs to and the time it was taken, and ends with a checksum of its content.
+ */
+final class SlackDirectorySnapshot
+{
+    private static final Logger         LOGGER  = LoggerFactory.getLogger(SlackDirectorySnapshot.class);
+
+    private static final int            MAGIC   = 0x534c4453;
+    private static final int            VERSION = 1;
+
+    private final String                teamId;
+    private final long                  takenAt;
+    private final SlackSessionDirectory directory;
+
+    SlackDirectorySnapshot(String teamId, long takenAt, SlackSessionDirectory directory)
+    {
+        this.teamId = teamId;
+        this.takenAt = takenAt;
+        this.directory = directory;
+    }
+
+    String getTeamId()
+    {
+        return teamId;
+    }
+
+    // wall clock time, in milliseconds, of the rtm.start answer the snapshot was built from
+    long getTakenAt()
+    {
+        return takenAt;
+    }
+
+    SlackSessionDirectory getDirectory()
+    {
+        return directory;
+    }
+
+    /**
+     * Writes the snapshot next to the target file, then moves it in place so that readers never
+     * see a partial file.
+     */
+    void write(Path file) throws IOException
+    {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        CRC32 crc = new CRC32();
+        try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)), crc)))
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeString(out, teamId);
+            out.writeLong(takenAt);
+
+            Collection<SlackUser> users = directory.getUsers();
+            out.writeInt(users.size());
+            for (SlackUser user : users)
+            {
+                writeString(out, user.getId());
+                writeString(out, user.getUserName());
+                writeString(out, user.getRealName());
+                writeString(out, user.getUserMail());
+                out.writeBoolean(user.isDeleted());
+            }
+
+            Collection<SlackBot> bots = directory.getBots();
+            out.writeInt(bots.size());
+            for (SlackBot bot : bots)
+            {
+                writeString(out, bot.getId());
+                writeString(out, bot.getName());
+                out.writeBoolean(bot.isDeleted());
+            }
+
+            Collection<SlackChannel> channels = directory.getChannels();
+            out.writeInt(channels.size());
+            for (SlackChannel channel : channels)
+            {
+                writeString(out, channel.getId());
+                writeString(out, channel.getName());
+                writeString(out, channel.getTopic());
+                writeString(out, channel.getPurpose());
+                Collection<SlackUser> members = channel.getMembers();
+                out.writeInt(members.size());
+                for (SlackUser member : members)
+                {
+                    writeString(out, member != null ? member.getId() : null);
+                }
+            }
+            out.flush();
+            // the checksum itself is not part of what it covers
+            long checksum = crc.getValue();
+            out.writeLong(checksum);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads a snapshot back, or returns null if there is none or it cannot be trusted.
+     */
+    static SlackDirectorySnapshot read(Path file)
+    {
+        CRC32 crc = new CRC32();
+        try (DataInputStream in = new DataInputStream(new CheckedInputStream(new BufferedInputStream(Files.newInputStream(file)), crc)))
+        {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+            {
+                LOGGER.info("ignoring directory snapshot " + file + " written by another version");
+                return null;
+            }
+            String teamId = readString(in);
+            long takenAt = in.readLong();
+            SlackSessionDirectory.Builder directory = new SlackSessionDirectory.Builder();
+
+            int userCount = in.readInt();
+            for (int i = 0; i < userCount; i++)
+            {
+                directory.addUser(new SlackUserImpl(readString(in), readString(in), readString(in), readString(in), in.readBoolean()));
+            }
+
+            int botCount = in.readInt();
+            for (int i = 0; i < botCount; i++)
+            {
+                directory.addBot(new SlackBotImpl(readString(in), readString(in), in.readBoolean()));
+            }
+
+            int channelCount = in.readInt();
+            for (int i = 0; i < channelCount; i++)
+            {
+                SlackChannelImpl channel = new SlackChannelImpl(readString(in), readString(in), readString(in), readString(in));
+                int memberCount = in.readInt();
+                for (int j = 0; j < memberCount; j++)
+                {
+                    String memberId = readString(in);
+                    channel.addUser(memberId != null ? directory.findUserById(memberId) : null);
+                }
+                directory.addChannel(channel);
+            }
+
+            long expected = crc.getValue();
+            if (in.readLong() != expected)
+            {
+                LOGGER.warn("directory snapshot " + file + " is corrupted, ignoring it");
+                return null;
+            }
+            return new SlackDirectorySnapshot(teamId, takenAt, directory.build());
+        }
+        catch (NoSuchFileException e)
+        {
+            return null;
+        }
+        catch (IOException | RuntimeException e)
+        {
+            LOGGER.warn("unable to read directory snapshot " + file, e);
+            return null;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException
+    {
+        out.writeBoolean(value != null);
+        if (value != null)
+        {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException
+    {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
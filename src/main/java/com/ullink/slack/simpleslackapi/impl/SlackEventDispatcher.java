@@ -0,0 +1,105 @@
+package com.ullink.slack.simpleslackapi.impl;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.ullink.slack.simpleslackapi.SlackLatencyHistogram;
+import com.ullink.slack.simpleslackapi.SlackMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs listener callbacks away from the websocket read thread. Events of a given channel always
+ * go to the same single threaded lane, so they are handled in the order they were received.
+ */
+class SlackEventDispatcher
+{
+    private static final Logger         LOGGER                = LoggerFactory.getLogger(SlackEventDispatcher.class);
+
+    // drops are logged at most this often, the read thread must not spend an overload logging
+    private static final long           DROP_LOG_INTERVAL     = TimeUnit.SECONDS.toNanos(10);
+
+    private final ThreadPoolExecutor[]  lanes;
+    private final SlackLatencyHistogram lag;
+    private final SlackLatencyHistogram handling;
+    private final LongAdder             rejected;
+    private final AtomicLong            droppedSinceLog       = new AtomicLong();
+    private final AtomicLong            lastDropLogNanos      = new AtomicLong(System.nanoTime() - DROP_LOG_INTERVAL);
+
+    SlackEventDispatcher(int laneCount, int queueCapacity, SlackMetrics metrics)
+    {
+        ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat("slack-dispatch-%d").setDaemon(true).build();
+        lanes = new ThreadPoolExecutor[Math.max(1, laneCount)];
+        for (int i = 0; i < lanes.length; i++)
+        {
+            lanes[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queueCapacity), threadFactory);
+        }
+        lag = metrics.histogram("dispatch.lag");
+        handling = metrics.histogram("dispatch.time");
+        rejected = metrics.counter("dispatch.rejected");
+        metrics.gauge("dispatch.queue.depth", () -> {
+            long depth = 0;
+            for (ThreadPoolExecutor lane : lanes)
+            {
+                depth += lane.getQueue().size();
+            }
+            return depth;
+        });
+    }
+
+    /**
+     * Queues the task on the lane of the channel. The task is dropped, and counted, if that lane
+     * is full: the read thread must never block.
+     */
+    void dispatch(String channelId, final Runnable task)
+    {
+        final long enqueuedAt = System.nanoTime();
+        int lane = channelId == null ? 0 : (channelId.hashCode() & Integer.MAX_VALUE) % lanes.length;
+        try
+        {
+            lanes[lane].execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    long startedAt = System.nanoTime();
+                    lag.recordNanos(startedAt - enqueuedAt);
+                    try
+                    {
+                        task.run();
+                    }
+                    catch (RuntimeException e)
+                    {
+                        LOGGER.error("slack listener failed", e);
+                    }
+                    handling.recordNanos(System.nanoTime() - startedAt);
+                }
+            });
+        }
+        catch (RejectedExecutionException e)
+        {
+            rejected.increment();
+            droppedSinceLog.incrementAndGet();
+            long now = System.nanoTime();
+            long last = lastDropLogNanos.get();
+            if (now - last >= DROP_LOG_INTERVAL && lastDropLogNanos.compareAndSet(last, now))
+            {
+                LOGGER.warn("dispatch queue full, dropped {} events", droppedSinceLog.getAndSet(0));
+            }
+        }
+    }
+
+    void shutdown()
+    {
+        for (ThreadPoolExecutor lane : lanes)
+        {
+            lane.shutdownNow();
+        }
+    }
+}
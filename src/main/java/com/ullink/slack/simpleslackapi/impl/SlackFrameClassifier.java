@@ -0,0 +1,187 @@
+package com.ullink.slack.simpleslackapi.impl;
+
+/**
+ * Reads the type of an RTM frame, and the channel of a message, in a single scan of the frame
+ * and without building a JSON tree, so that frames nobody handles are dropped before being
+ * parsed. Only the members of the top level object are looked at, nested values are skipped.
+ * <p>
+ * An instance keeps the outcome of the last frame it classified and is reused from one frame to
+ * the next: it must be confined to a single thread.
+ */
+final class SlackFrameClassifier
+{
+    enum FrameType
+    {
+        // a frame without type, answering a message sent over the websocket
+        REPLY(null),
+        PONG("pong"),
+        MESSAGE("message"),
+        GROUP_JOINED("group_joined"),
+        TEAM_JOIN("team_join"),
+        USER_CHANGE("user_change"),
+        BOT_ADDED("bot_added"),
+        BOT_CHANGED("bot_changed"),
+        CHANNEL_CREATED("channel_created"),
+        CHANNEL_RENAME("channel_rename"),
+        GROUP_RENAME("group_rename"),
+        CHANNEL_DELETED("channel_deleted"),
+        GROUP_LEFT("group_left"),
+        // any type the session does not handle
+        OTHER(null);
+
+        private final String wireName;
+
+        FrameType(String wireName)
+        {
+            this.wireName = wireName;
+        }
+    }
+
+    // values() copies the array on every call
+    private static final FrameType[] TYPES = FrameType.values();
+
+    private FrameType                type;
+    private int                      channelStart;
+    private int                      channelEnd;
+    private String                   source;
+
+    /**
+     * Classifies the frame. Returns false if it is not a JSON object, in which case the type is
+     * {@link FrameType#OTHER}.
+     */
+    boolean classify(String frame)
+    {
+        source = frame;
+        type = null;
+        channelStart = -1;
+        channelEnd = -1;
+        int length = frame.length();
+        int i = skipWhitespace(frame, 0);
+        if (i >= length || frame.charAt(i) != '{')
+        {
+            type = FrameType.OTHER;
+            return false;
+        }
+        int depth = 0;
+        while (i < length)
+        {
+            char c = frame.charAt(i);
+            if (c == '"')
+            {
+                int keyEnd = skipString(frame, i);
+                if (keyEnd < 0)
+                {
+                    break;
+                }
+                int colon = skipWhitespace(frame, keyEnd);
+                if (depth == 1 && colon < length && frame.charAt(colon) == ':')
+                {
+                    int valueStart = skipWhitespace(frame, colon + 1);
+                    if (valueStart < length && frame.charAt(valueStart) == '"')
+                    {
+                        int valueEnd = skipString(frame, valueStart);
+                        if (valueEnd < 0)
+                        {
+                            break;
+                        }
+                        if (isKey(frame, i, keyEnd, "type"))
+                        {
+                            type = lookup(frame, valueStart + 1, valueEnd - 1);
+                        }
+                        else if (isKey(frame, i, keyEnd, "channel"))
+                        {
+                            channelStart = valueStart + 1;
+                            channelEnd = valueEnd - 1;
+                        }
+                        if (type != null && (type != FrameType.MESSAGE || channelStart >= 0))
+                        {
+                            return true;
+                        }
+                        i = valueEnd;
+                        continue;
+                    }
+                    i = valueStart;
+                    continue;
+                }
+                i = keyEnd;
+                continue;
+            }
+            if (c == '{' || c == '[')
+            {
+                depth++;
+            }
+            else if (c == '}' || c == ']')
+            {
+                depth--;
+            }
+            i++;
+        }
+        if (type == null)
+        {
+            type = FrameType.REPLY;
+        }
+        return true;
+    }
+
+    FrameType getType()
+    {
+        return type;
+    }
+
+    /**
+     * Returns the channel of the last frame, or null if it has none. Only the channel of a message
+     * is guaranteed to be found, the scan stops at the type of other frames.
+     */
+    String getChannel()
+    {
+        return channelStart < 0 ? null : source.substring(channelStart, channelEnd);
+    }
+
+    private static FrameType lookup(String frame, int start, int end)
+    {
+        int length = end - start;
+        for (FrameType candidate : TYPES)
+        {
+            String name = candidate.wireName;
+            if (name != null && name.length() == length && frame.startsWith(name, start))
+            {
+                return candidate;
+            }
+        }
+        return FrameType.OTHER;
+    }
+
+    private static boolean isKey(String frame, int quote, int end, String key)
+    {
+        return end - quote - 2 == key.length() && frame.startsWith(key, quote + 1);
+    }
+
+    // index following the string starting at the given quote, or -1 if it is not terminated
+    private static int skipString(String frame, int quote)
+    {
+        int length = frame.length();
+        for (int i = quote + 1; i < length; i++)
+        {
+            char c = frame.charAt(i);
+            if (c == '\\')
+            {
+                i++;
+            }
+            else if (c == '"')
+            {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private static int skipWhitespace(String frame, int from)
+    {
+        int i = from;
+        while (i < frame.length() && Character.isWhitespace(frame.charAt(i)))
+        {
+            i++;
+        }
+        return i;
+    }
+}
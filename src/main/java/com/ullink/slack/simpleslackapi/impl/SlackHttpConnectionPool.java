@@ -0,0 +1,170 @@
+package com.ullink.slack.simpleslackapi.impl;
+
+import org.apache.http.Consts;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.DefaultProxyRoutePlanner;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Session scoped keep-alive HTTP client. Every Web API call of a session goes through the same
+ * pool so that the TLS handshake with slack.com is only paid once per pooled connection.
+ */
+class SlackHttpConnectionPool
+{
+    private static final Logger                      LOGGER                     = LoggerFactory.getLogger(SlackHttpConnectionPool.class);
+
+    static final int                                 HTTP_TOO_MANY_REQUESTS     = 429;
+    private static final long                        DEFAULT_RETRY_AFTER_MILLIS = 1000;
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient                httpClient;
+    private final ScheduledFuture<?>                 evictionTask;
+
+    SlackHttpConnectionPool(HttpHost proxyHost, int maxConnectionsPerRoute, int maxConnections, final long idleConnectionTimeoutMillis, int timeoutMillis,
+        ScheduledExecutorService scheduler)
+    {
+        connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+        connectionManager.setMaxTotal(Math.max(maxConnections, maxConnectionsPerRoute));
+
+        // bound every phase of a call so that a stuck request fails its handle instead of hanging
+        RequestConfig requestConfig = RequestConfig.custom().setConnectionRequestTimeout(timeoutMillis).setConnectTimeout(timeoutMillis).setSocketTimeout(timeoutMillis).build();
+        HttpClientBuilder builder = HttpClientBuilder.create().setConnectionManager(connectionManager).setDefaultRequestConfig(requestConfig);
+        if (proxyHost != null)
+        {
+            builder.setRoutePlanner(new DefaultProxyRoutePlanner(proxyHost));
+        }
+        httpClient = builder.build();
+
+        // httpclient 4.3 has no built-in evictor, sweep expired and idle connections ourselves
+        long sweepPeriod = Math.max(1000, idleConnectionTimeoutMillis / 2);
+        evictionTask = scheduler.scheduleWithFixedDelay(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                connectionManager.closeExpiredConnections();
+                connectionManager.closeIdleConnections(idleConnectionTimeoutMillis, TimeUnit.MILLISECONDS);
+            }
+        }, sweepPeriod, sweepPeriod, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Executes the request and reads the response. The entity is always fully consumed so the
+     * underlying connection goes back to the pool.
+     */
+    Response execute(HttpUriRequest request) throws IOException
+    {
+        try (CloseableHttpResponse response = httpClient.execute(request))
+        {
+            HttpEntity entity = response.getEntity();
+            String body = entity != null ? EntityUtils.toString(entity, Consts.UTF_8) : null;
+            return new Response(response.getStatusLine().getStatusCode(), body, parseRetryAfter(response.getFirstHeader("Retry-After")));
+        }
+    }
+
+    /**
+     * Executes the request and hands the response stream to the reader, without buffering the
+     * whole body. Whatever the reader leaves unread is drained so the connection can be reused.
+     */
+    <T> T execute(HttpUriRequest request, ContentReader<T> reader) throws Exception
+    {
+        try (CloseableHttpResponse response = httpClient.execute(request))
+        {
+            HttpEntity entity = response.getEntity();
+            if (entity == null)
+            {
+                throw new IOException("empty answer with HTTP status " + response.getStatusLine().getStatusCode());
+            }
+            try
+            {
+                return reader.read(entity.getContent());
+            }
+            finally
+            {
+                EntityUtils.consume(entity);
+            }
+        }
+    }
+
+    private static long parseRetryAfter(Header header)
+    {
+        if (header == null)
+        {
+            return DEFAULT_RETRY_AFTER_MILLIS;
+        }
+        try
+        {
+            return TimeUnit.SECONDS.toMillis(Long.parseLong(header.getValue().trim()));
+        }
+        catch (NumberFormatException e)
+        {
+            return DEFAULT_RETRY_AFTER_MILLIS;
+        }
+    }
+
+    void close()
+    {
+        evictionTask.cancel(false);
+        try
+        {
+            httpClient.close();
+        }
+        catch (IOException e)
+        {
+            LOGGER.warn("unable to close http client cleanly", e);
+        }
+        connectionManager.shutdown();
+    }
+
+    interface ContentReader<T>
+    {
+        T read(InputStream content) throws Exception;
+    }
+
+    static class Response
+    {
+        private final int    statusCode;
+        private final String body;
+        private final long   retryAfterMillis;
+
+        Response(int statusCode, String body, long retryAfterMillis)
+        {
+            this.statusCode = statusCode;
+            this.body = body;
+            this.retryAfterMillis = retryAfterMillis;
+        }
+
+        int getStatusCode()
+        {
+            return statusCode;
+        }
+
+        String getBody()
+        {
+            return body;
+        }
+
+        // only meaningful on a 429 answer
+        long getRetryAfterMillis()
+        {
+            return retryAfterMillis;
+        }
+    }
+}
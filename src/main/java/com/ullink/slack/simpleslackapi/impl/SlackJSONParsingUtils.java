@@ -19,9 +19,9 @@ class SlackJSONParsingUtils
         String id = (String) jsonUser.get("id");
         String name = (String) jsonUser.get("name");
         String realName = (String) jsonUser.get("real_name");
-        Boolean deleted = (Boolean) jsonUser.get("deleted");
+        boolean deleted = Boolean.TRUE.equals(jsonUser.get("deleted"));
         JSONObject profileJSON = (JSONObject) jsonUser.get("profile");
-        String email = (String) profileJSON.get("email");
+        String email = profileJSON != null ? (String) profileJSON.get("email") : null;
         return new SlackUserImpl(id, name, realName, email, deleted);
     }
 
@@ -29,7 +29,7 @@ class SlackJSONParsingUtils
     {
         String id = (String) jsonBot.get("id");
         String name = (String) jsonBot.get("name");
-        Boolean deleted = (Boolean) jsonBot.get("deleted");
+        boolean deleted = Boolean.TRUE.equals(jsonBot.get("deleted"));
         return new SlackBotImpl(id, name, deleted);
     }
 
@@ -1,103 +1,256 @@
 package com.ullink.slack.simpleslackapi.impl;
 
-import com.ullink.slack.simpleslackapi.SlackBot;
-import com.ullink.slack.simpleslackapi.SlackChannel;
-import com.ullink.slack.simpleslackapi.SlackUser;
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
+import org.json.simple.parser.ContentHandler;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
 
+/**
+ * Pull-style parser of the rtm.start and rtm.connect answers. The payload is read token by token from the response
+ * stream and only the fields the session needs are kept, so a large workspace roster never
+ * exists in memory as a String or a JSON tree.
+ */
 class SlackJSONSessionStatusParser
 {
-    private static final Logger       LOGGER   = LoggerFactory.getLogger(SlackJSONSessionStatusParser.class);
+    private static final Logger       LOGGER    = LoggerFactory.getLogger(SlackJSONSessionStatusParser.class);
 
-    private Map<String, SlackChannel> channels = new HashMap<>();
-    private Map<String, SlackUser>    users    = new HashMap<>();
-    private Map<String, SlackBot>     bots     = new HashMap<>();
+    private SlackSessionDirectory.Builder directory = new SlackSessionDirectory.Builder();
 
     private String                    webSocketURL;
+    private String                    error;
+    private String                    teamId;
 
-    private String                    toParse;
+    private Reader                    toParse;
 
-    SlackJSONSessionStatusParser(String toParse)
+    SlackJSONSessionStatusParser(Reader toParse)
     {
         this.toParse = toParse;
     }
 
-    Map<String, SlackBot> getBots()
+    SlackSessionDirectory getDirectory()
     {
-        return bots;
+        return directory.build();
     }
 
-    Map<String, SlackChannel> getChannels()
+    public String getWebSocketURL()
     {
-        return channels;
+        return webSocketURL;
     }
 
-    Map<String, SlackUser> getUsers()
+    // error code sent by slack when the answer is not ok
+    String getError()
     {
-        return users;
+        return error;
     }
 
-    public String getWebSocketURL()
+    // id of the team the session belongs to, rtm.connect answers carry it as well
+    String getTeamId()
     {
-        return webSocketURL;
+        return teamId;
+    }
+
+    void parse() throws ParseException, IOException
+    {
+        SessionContentHandler handler = new SessionContentHandler();
+        new JSONParser().parse(toParse, handler);
+
+        // channel members refer to users which may come later in the payload
+        for (PendingChannel pending : handler.pendingChannels)
+        {
+            SlackChannelImpl channel = new SlackChannelImpl(pending.id, pending.name, null, null);
+            for (String memberId : pending.memberIds)
+            {
+                channel.addUser(directory.findUserById(memberId));
+            }
+            LOGGER.debug("slack {} found : {}", pending.group ? "private group" : "public channel", pending.id);
+            directory.addChannel(channel);
+        }
+    }
+
+    private static class PendingChannel
+    {
+        private final boolean group;
+        private String        id;
+        private String        name;
+        private List<String>  memberIds = new ArrayList<>();
+
+        private PendingChannel(boolean group)
+        {
+            this.group = group;
+        }
     }
 
-    void parse() throws ParseException
+    private class SessionContentHandler implements ContentHandler
     {
-        LOGGER.debug("parsing session status : " + toParse);
-        JSONParser parser = new JSONParser();
-        JSONObject jsonResponse = (JSONObject) parser.parse(toParse);
+        // keys of the object entries enclosing the current token, outermost first
+        private final List<String>          keys            = new ArrayList<>();
+        private int                         objectDepth     = 0;
+
+        private final List<PendingChannel>  pendingChannels = new ArrayList<>();
 
-        JSONArray usersJson = (JSONArray) jsonResponse.get("users");
+        private String                      section;
+        private String                      id;
+        private String                      name;
+        private String                      realName;
+        private String                      email;
+        private boolean                     deleted;
+        private PendingChannel              channel;
 
-        for (Object jsonObject : usersJson)
+        @Override
+        public void startJSON()
         {
-            JSONObject jsonUser = (JSONObject) jsonObject;
-            SlackUser slackUser = SlackJSONParsingUtils.buildSlackUser(jsonUser);
-            LOGGER.debug("slack user found : " + slackUser.getId());
-            users.put(slackUser.getId(), slackUser);
         }
 
-        JSONArray botsJson = (JSONArray) jsonResponse.get("bots");
+        @Override
+        public void endJSON()
+        {
+        }
 
-        for (Object jsonObject : botsJson)
+        @Override
+        public boolean startObject()
         {
-            JSONObject jsonBot = (JSONObject) jsonObject;
-            SlackBot slackBot = SlackJSONParsingUtils.buildSlackBot(jsonBot);
-            LOGGER.debug("slack bot found : " + slackBot.getId());
-            bots.put(slackBot.getId(), slackBot);
+            objectDepth++;
+            if (objectDepth == 2 && keys.size() == 1)
+            {
+                section = keys.get(0);
+                id = null;
+                name = null;
+                realName = null;
+                email = null;
+                deleted = false;
+                boolean isChannel = "channels".equals(section) || "groups".equals(section);
+                channel = isChannel ? new PendingChannel("groups".equals(section)) : null;
+            }
+            return true;
         }
 
-        JSONArray channelsJson = (JSONArray) jsonResponse.get("channels");
+        @Override
+        public boolean endObject()
+        {
+            if (objectDepth == 2 && section != null)
+            {
+                endElement();
+                section = null;
+            }
+            objectDepth--;
+            return true;
+        }
 
-        for (Object jsonObject : channelsJson)
+        private void endElement()
         {
-            JSONObject jsonChannel = (JSONObject) jsonObject;
-            SlackChannelImpl channel = SlackJSONParsingUtils.buildSlackChannel(jsonChannel, users);
-            LOGGER.debug("slack public channel found : " + channel.getId());
-            channels.put(channel.getId(), channel);
+            if (id == null)
+            {
+                return;
+            }
+            switch (section)
+            {
+                case "users":
+                    LOGGER.debug("slack user found : {}", id);
+                    directory.addUser(new SlackUserImpl(id, name, realName, email, deleted));
+                    break;
+                case "bots":
+                    LOGGER.debug("slack bot found : {}", id);
+                    directory.addBot(new SlackBotImpl(id, name, deleted));
+                    break;
+                case "team":
+                    teamId = id;
+                    break;
+                case "channels":
+                case "groups":
+                    channel.id = id;
+                    channel.name = name;
+                    pendingChannels.add(channel);
+                    channel = null;
+                    break;
+                default:
+                    break;
+            }
         }
 
-        JSONArray groupsJson = (JSONArray) jsonResponse.get("groups");
+        @Override
+        public boolean startObjectEntry(String key)
+        {
+            keys.add(key);
+            return true;
+        }
 
-        for (Object jsonObject : groupsJson)
+        @Override
+        public boolean endObjectEntry()
         {
-            JSONObject jsonChannel = (JSONObject) jsonObject;
-            SlackChannelImpl channel = SlackJSONParsingUtils.buildSlackChannel(jsonChannel, users);
-            LOGGER.debug("slack private group found : " + channel.getId());
-            channels.put(channel.getId(), channel);
+            keys.remove(keys.size() - 1);
+            return true;
         }
 
-        webSocketURL = (String) jsonResponse.get("url");
+        @Override
+        public boolean startArray()
+        {
+            return true;
+        }
 
+        @Override
+        public boolean endArray()
+        {
+            return true;
+        }
+
+        @Override
+        public boolean primitive(Object value)
+        {
+            if (keys.isEmpty())
+            {
+                return true;
+            }
+            String key = keys.get(keys.size() - 1);
+            if (objectDepth == 1 && keys.size() == 1)
+            {
+                if ("url".equals(key))
+                {
+                    webSocketURL = (String) value;
+                }
+                else if ("error".equals(key))
+                {
+                    error = (String) value;
+                }
+            }
+            else if (objectDepth == 2 && keys.size() == 2 && section != null)
+            {
+                // a field of a roster entry, or an item of an array of primitives held by that field
+                switch (key)
+                {
+                    case "id":
+                        id = (String) value;
+                        break;
+                    case "name":
+                        name = (String) value;
+                        break;
+                    case "real_name":
+                        realName = (String) value;
+                        break;
+                    case "deleted":
+                        deleted = Boolean.TRUE.equals(value);
+                        break;
+                    case "members":
+                        if (channel != null && value != null)
+                        {
+                            channel.memberIds.add((String) value);
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+            else if (objectDepth == 3 && keys.size() == 3 && "users".equals(section) && "profile".equals(keys.get(1)) && "email".equals(key))
+            {
+                email = (String) value;
+            }
+            return true;
+        }
     }
 
 }
@@ -0,0 +1,190 @@
+package com.ullink.slack.simpleslackapi.impl;
+
+import com.ullink.slack.simpleslackapi.SlackLatencyHistogram;
+import com.ullink.slack.simpleslackapi.SlackMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Pings slack at a fixed interval on the session scheduler and declares the link lost once too
+ * many pongs in a row went missing. Pongs are recognized straight from the raw frame, without
+ * parsing it as JSON, and their round trip time is recorded in {@code rtm.ping.rtt}.
+ */
+class SlackLivenessTracker
+{
+    private static final Logger            LOGGER        = LoggerFactory.getLogger(SlackLivenessTracker.class);
+
+    private static final String            PING_PREFIX   = "{\"type\":\"ping\",\"id\":";
+    private static final String            PONG_PREFIX   = "{\"type\":\"pong\",\"reply_to\":";
+
+    interface Link
+    {
+        boolean isConnected();
+
+        void send(String frame) throws IOException;
+
+        void livenessLost(String reason);
+    }
+
+    private final Link                     link;
+    private final LongSupplier             ids;
+    private final ScheduledExecutorService scheduler;
+    private final long                     intervalMillis;
+    private final int                      maxMissedPongs;
+
+    // only touched by the scheduled task, which never runs concurrently with itself
+    private final StringBuilder            frame         = new StringBuilder(PING_PREFIX.length() + 21);
+
+    private long                           pendingPingId = -1;
+    private long                           pendingPingSentAt;
+    private int                            missedPongs;
+    private ScheduledFuture<?>             task;
+
+    private final SlackLatencyHistogram    roundTrip;
+    private final LongAdder                missed;
+
+    SlackLivenessTracker(Link link, LongSupplier ids, ScheduledExecutorService scheduler, long intervalMillis, int maxMissedPongs, SlackMetrics metrics)
+    {
+        this.link = link;
+        this.ids = ids;
+        this.scheduler = scheduler;
+        this.intervalMillis = intervalMillis;
+        this.maxMissedPongs = Math.max(1, maxMissedPongs);
+        this.roundTrip = metrics.histogram("rtm.ping.rtt");
+        this.missed = metrics.counter("rtm.ping.missed");
+    }
+
+    synchronized void start()
+    {
+        if (task == null)
+        {
+            task = scheduler.scheduleWithFixedDelay(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    tick();
+                }
+            }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    synchronized void stop()
+    {
+        if (task != null)
+        {
+            task.cancel(false);
+            task = null;
+        }
+        reset();
+    }
+
+    // forgets any outstanding ping, called whenever a new connection is established
+    synchronized void reset()
+    {
+        pendingPingId = -1;
+        missedPongs = 0;
+    }
+
+    private void tick()
+    {
+        long id;
+        synchronized (this)
+        {
+            if (!link.isConnected())
+            {
+                reset();
+                return;
+            }
+            if (pendingPingId != -1)
+            {
+                missed.increment();
+                if (++missedPongs >= maxMissedPongs)
+                {
+                    reset();
+                    id = -1;
+                }
+                else
+                {
+                    id = ids.getAsLong();
+                }
+            }
+            else
+            {
+                id = ids.getAsLong();
+            }
+            if (id != -1)
+            {
+                pendingPingId = id;
+                pendingPingSentAt = System.nanoTime();
+            }
+        }
+        if (id == -1)
+        {
+            link.livenessLost(maxMissedPongs + " pongs missed in a row");
+            return;
+        }
+        frame.setLength(0);
+        frame.append(PING_PREFIX).append(id).append('}');
+        try
+        {
+            link.send(frame.toString());
+            if (LOGGER.isDebugEnabled())
+            {
+                LOGGER.debug("ping sent " + id);
+            }
+        }
+        catch (IOException e)
+        {
+            LOGGER.warn("unable to send ping", e);
+        }
+    }
+
+    /**
+     * Any pong proves the link is alive, but only the one answering the latest ping gives a
+     * meaningful round trip time.
+     */
+    synchronized void onPong(long replyTo)
+    {
+        if (replyTo == pendingPingId)
+        {
+            roundTrip.recordNanos(System.nanoTime() - pendingPingSentAt);
+        }
+        pendingPingId = -1;
+        missedPongs = 0;
+    }
+
+    /**
+     * Returns the id a pong frame replies to, or -1 if the frame is not a pong in the layout slack
+     * sends them. Scans the frame in place rather than extracting and parsing a substring.
+     */
+    static long parsePongReplyTo(String message)
+    {
+        if (!message.startsWith(PONG_PREFIX))
+        {
+            return -1;
+        }
+        long replyTo = 0;
+        int i = PONG_PREFIX.length();
+        int end = message.length();
+        int start = i;
+        while (i < end)
+        {
+            char c = message.charAt(i);
+            if (c < '0' || c > '9')
+            {
+                break;
+            }
+            replyTo = replyTo * 10 + (c - '0');
+            i++;
+        }
+        return i == start ? -1 : replyTo;
+    }
+}
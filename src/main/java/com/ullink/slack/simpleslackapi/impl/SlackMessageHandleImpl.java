@@ -3,13 +3,18 @@ package com.ullink.slack.simpleslackapi.impl;
 import com.ullink.slack.simpleslackapi.SlackMessageHandle;
 import com.ullink.slack.simpleslackapi.SlackReply;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 class SlackMessageHandleImpl implements SlackMessageHandle
 {
 
-    private long                messageId;
-    private volatile SlackReply slackReply;
+    private long                                messageId;
+    private volatile SlackReply                 slackReply;
+    private final CompletableFuture<SlackReply> replyFuture = new CompletableFuture<>();
+    private volatile long                       sentAt;
 
     public SlackMessageHandleImpl(long messageId)
     {
@@ -31,28 +36,51 @@ class SlackMessageHandleImpl implements SlackMessageHandle
     void setSlackReply(SlackReply slackReply)
     {
         this.slackReply = slackReply;
+        replyFuture.complete(slackReply);
+    }
+
+    // System.nanoTime() of the moment the message went on the wire
+    long getSentAt()
+    {
+        return sentAt;
+    }
+
+    void setSentAt(long sentAt)
+    {
+        this.sentAt = sentAt;
+    }
+
+    void setFailure(Throwable cause)
+    {
+        replyFuture.completeExceptionally(cause);
+    }
+
+    @Override
+    public CompletableFuture<SlackReply> getReplyFuture()
+    {
+        return replyFuture;
     }
 
     @Override
     public boolean isAcked()
     {
-        return false;
+        return slackReply != null;
     }
 
     @Override
     public void waitForReply(long timeout, TimeUnit unit)
     {
-        long nanoStart = System.nanoTime();
-        while ((System.nanoTime() - nanoStart) < unit.toNanos(timeout) && slackReply == null)
+        try
+        {
+            replyFuture.get(timeout, unit);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException | TimeoutException e)
         {
-            try
-            {
-                Thread.sleep(1);
-            }
-            catch (InterruptedException e)
-            {
-                return;
-            }
+            // no reply, getSlackReply() stays null
         }
     }
 
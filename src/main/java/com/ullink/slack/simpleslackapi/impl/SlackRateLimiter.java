@@ -0,0 +1,261 @@
+package com.ullink.slack.simpleslackapi.impl;
+
+import com.ullink.slack.simpleslackapi.SlackMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Paces Web API calls with one token bucket per method and channel, following Slack rate limit
+ * tiers. A 429 answer pauses the bucket for the Retry-After delay and halves its rate, which then
+ * recovers gradually with every successful call. With limiting disabled, calls are not paced but
+ * a 429 answer still holds back the calls of its bucket for the Retry-After delay.
+ * <p>
+ * Buckets are dropped once idle, that is when they are full again and no longer paused or slowed
+ * down, since a new bucket would then be in the same state.
+ */
+class SlackRateLimiter
+{
+    private static final Logger            LOGGER          = LoggerFactory.getLogger(SlackRateLimiter.class);
+
+    // Tier 3 (50+ per minute) is the documented tier for most chat methods
+    private static final Tier              DEFAULT_TIER    = new Tier(50.0 / 60, 3);
+    private static final Map<String, Tier> TIERS           = new HashMap<>();
+
+    static
+    {
+        // chat.postMessage has a special limit of roughly one message per second per channel
+        TIERS.put("chat.postMessage", new Tier(1, 3));
+        TIERS.put("chat.update", DEFAULT_TIER);
+        TIERS.put("chat.delete", DEFAULT_TIER);
+        TIERS.put("files.upload", new Tier(20.0 / 60, 1));
+    }
+
+    private static final double            MIN_RATE_FACTOR = 0.1;
+    private static final double            RECOVERY_FACTOR = 1.05;
+    private static final long              SWEEP_INTERVAL  = TimeUnit.MINUTES.toNanos(1);
+
+    private final ConcurrentMap<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+    private final boolean                  enabled;
+    private final AtomicLong               lastSweepNanos  = new AtomicLong(System.nanoTime());
+
+    private final LongAdder                throttledCalls;
+    private final LongAdder                delayedCalls;
+    private final LongAdder                delayMillis;
+
+    SlackRateLimiter(boolean enabled, SlackMetrics metrics)
+    {
+        this.enabled = enabled;
+        this.throttledCalls = metrics.counter("ratelimit.throttled");
+        this.delayedCalls = metrics.counter("ratelimit.delayed");
+        this.delayMillis = metrics.counter("ratelimit.delay.millis");
+    }
+
+    /**
+     * Takes a slot in the bucket of the method and channel, and returns how many nanoseconds the
+     * call must wait before being made.
+     */
+    long reserve(String method, String channelId)
+    {
+        String key = key(method, channelId);
+        long waitNanos;
+        if (enabled)
+        {
+            // an evicted bucket refuses the reservation, the next one is picked up instead
+            do
+            {
+                waitNanos = bucket(key, method).reserve(System.nanoTime());
+            }
+            while (waitNanos < 0);
+        }
+        else
+        {
+            // only buckets paused by a 429 exist, and they are not paced
+            TokenBucket bucket = buckets.get(key);
+            waitNanos = bucket == null ? 0 : bucket.pausedFor(System.nanoTime());
+        }
+        if (waitNanos > 0)
+        {
+            delayedCalls.increment();
+            delayMillis.add(TimeUnit.NANOSECONDS.toMillis(waitNanos));
+        }
+        return waitNanos;
+    }
+
+    void onRateLimited(String method, String channelId, long retryAfterMillis)
+    {
+        throttledCalls.increment();
+        LOGGER.warn(method + " rate limited on channel " + channelId + ", retrying after " + retryAfterMillis + "ms");
+        String key = key(method, channelId);
+        while (!bucket(key, method).pause(System.nanoTime(), TimeUnit.MILLISECONDS.toNanos(retryAfterMillis)))
+        {
+            // evicted meanwhile, pause the bucket replacing it
+        }
+    }
+
+    void onSuccess(String method, String channelId)
+    {
+        if (enabled)
+        {
+            TokenBucket bucket = buckets.get(key(method, channelId));
+            if (bucket != null)
+            {
+                bucket.recover();
+            }
+        }
+    }
+
+    private static String key(String method, String channelId)
+    {
+        return channelId != null ? method + '/' + channelId : method;
+    }
+
+    private TokenBucket bucket(String key, String method)
+    {
+        TokenBucket bucket = buckets.get(key);
+        if (bucket == null)
+        {
+            sweepIfDue();
+            Tier tier = TIERS.containsKey(method) ? TIERS.get(method) : DEFAULT_TIER;
+            bucket = buckets.computeIfAbsent(key, k -> new TokenBucket(tier));
+        }
+        return bucket;
+    }
+
+    // called when a bucket is created, so a limiter whose set of buckets stays the same never sweeps
+    private void sweepIfDue()
+    {
+        long now = System.nanoTime();
+        long last = lastSweepNanos.get();
+        if (now - last < SWEEP_INTERVAL || !lastSweepNanos.compareAndSet(last, now))
+        {
+            return;
+        }
+        for (Map.Entry<String, TokenBucket> entry : buckets.entrySet())
+        {
+            if (entry.getValue().evictIfIdle(now, enabled))
+            {
+                buckets.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private static class Tier
+    {
+        private final double permitsPerSecond;
+        private final int    burst;
+
+        private Tier(double permitsPerSecond, int burst)
+        {
+            this.permitsPerSecond = permitsPerSecond;
+            this.burst = burst;
+        }
+    }
+
+    private static class TokenBucket
+    {
+        private final Tier tier;
+        private double     tokens;
+        private double     rateFactor = 1;
+        // may lie in the future while the bucket is paused after a 429
+        private long       lastRefillNanos;
+        // set once the bucket is removed from the limiter, it must no longer be used
+        private boolean    evicted;
+
+        private TokenBucket(Tier tier)
+        {
+            this.tier = tier;
+            this.tokens = tier.burst;
+            this.lastRefillNanos = System.nanoTime();
+        }
+
+        /**
+         * Takes a token, possibly going into debt, and returns how long the caller must wait
+         * before using it, or -1 if the bucket was evicted.
+         */
+        synchronized long reserve(long now)
+        {
+            if (evicted)
+            {
+                return -1;
+            }
+            double permitsPerNano = permitsPerNano();
+            long waitNanos = pausedFor(now);
+            refill(now, permitsPerNano);
+            tokens -= 1;
+            if (tokens < 0)
+            {
+                waitNanos += (long) (-tokens / permitsPerNano);
+            }
+            return waitNanos;
+        }
+
+        synchronized long pausedFor(long now)
+        {
+            return Math.max(0, lastRefillNanos - now);
+        }
+
+        /**
+         * Returns false if the bucket was evicted, in which case it is left untouched.
+         */
+        synchronized boolean pause(long now, long durationNanos)
+        {
+            if (evicted)
+            {
+                return false;
+            }
+            rateFactor = Math.max(MIN_RATE_FACTOR, rateFactor / 2);
+            tokens = Math.min(tokens, 0);
+            lastRefillNanos = Math.max(lastRefillNanos, now + durationNanos);
+            return true;
+        }
+
+        /**
+         * Marks the bucket evicted if it holds nothing a new bucket would not: not paused and, when
+         * pacing, full and back to its nominal rate.
+         */
+        synchronized boolean evictIfIdle(long now, boolean pacing)
+        {
+            if (pausedFor(now) > 0)
+            {
+                return false;
+            }
+            if (pacing)
+            {
+                refill(now, permitsPerNano());
+                if (rateFactor < 1 || tokens < tier.burst)
+                {
+                    return false;
+                }
+            }
+            evicted = true;
+            return true;
+        }
+
+        private double permitsPerNano()
+        {
+            return tier.permitsPerSecond * rateFactor / TimeUnit.SECONDS.toNanos(1);
+        }
+
+        private void refill(long now, double permitsPerNano)
+        {
+            if (now > lastRefillNanos)
+            {
+                tokens = Math.min(tier.burst, tokens + (now - lastRefillNanos) * permitsPerNano);
+                lastRefillNanos = now;
+            }
+        }
+
+        synchronized void recover()
+        {
+            rateFactor = Math.min(1, rateFactor * RECOVERY_FACTOR);
+        }
+    }
+}
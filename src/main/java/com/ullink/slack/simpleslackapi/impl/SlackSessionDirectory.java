@@ -0,0 +1,247 @@
+package com.ullink.slack.simpleslackapi.impl;
+
+import com.ullink.slack.simpleslackapi.SlackBot;
+import com.ullink.slack.simpleslackapi.SlackChannel;
+import com.ullink.slack.simpleslackapi.SlackUser;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of the users, bots and channels known by a session, keyed by id with
+ * secondary indexes on channel name, user name and user email so that every lookup is a hash
+ * lookup. Updates produce a new snapshot which shares the maps that did not change.
+ */
+final class SlackSessionDirectory
+{
+    static final SlackSessionDirectory      EMPTY          = new Builder().build();
+
+    private final Map<String, SlackUser>    usersById;
+    private final Map<String, SlackUser>    usersByName;
+    private final Map<String, SlackUser>    usersByEmail;
+    private final Map<String, SlackBot>     botsById;
+    private final Map<String, SlackChannel> channelsById;
+    private final Map<String, SlackChannel> channelsByName;
+
+    private SlackSessionDirectory(Map<String, SlackUser> usersById, Map<String, SlackUser> usersByName, Map<String, SlackUser> usersByEmail, Map<String, SlackBot> botsById,
+        Map<String, SlackChannel> channelsById, Map<String, SlackChannel> channelsByName)
+    {
+        this.usersById = usersById;
+        this.usersByName = usersByName;
+        this.usersByEmail = usersByEmail;
+        this.botsById = botsById;
+        this.channelsById = channelsById;
+        this.channelsByName = channelsByName;
+    }
+
+    /**
+     * Returns a copy of this directory where the channel is added, or replaces the channel with
+     * the same id. Only the channel maps are copied.
+     */
+    SlackSessionDirectory withChannel(SlackChannel channel)
+    {
+        Map<String, SlackChannel> newChannelsById = new HashMap<>(channelsById);
+        Map<String, SlackChannel> newChannelsByName = new HashMap<>(channelsByName);
+        putChannel(newChannelsById, newChannelsByName, channel);
+        return new SlackSessionDirectory(usersById, usersByName, usersByEmail, botsById, Collections.unmodifiableMap(newChannelsById), Collections.unmodifiableMap(newChannelsByName));
+    }
+
+    /**
+     * Returns a copy of this directory without the channel with the given id, or this directory
+     * if there is no such channel.
+     */
+    SlackSessionDirectory withoutChannel(String channelId)
+    {
+        SlackChannel previous = channelsById.get(channelId);
+        if (previous == null)
+        {
+            return this;
+        }
+        Map<String, SlackChannel> newChannelsById = new HashMap<>(channelsById);
+        Map<String, SlackChannel> newChannelsByName = new HashMap<>(channelsByName);
+        newChannelsById.remove(channelId);
+        if (previous.getName() != null)
+        {
+            newChannelsByName.remove(previous.getName(), previous);
+        }
+        return new SlackSessionDirectory(usersById, usersByName, usersByEmail, botsById, Collections.unmodifiableMap(newChannelsById), Collections.unmodifiableMap(newChannelsByName));
+    }
+
+    /**
+     * Returns a copy of this directory where the user is added, or replaces the user with the
+     * same id. Only the user maps are copied.
+     */
+    SlackSessionDirectory withUser(SlackUser user)
+    {
+        Map<String, SlackUser> newUsersById = new HashMap<>(usersById);
+        Map<String, SlackUser> newUsersByName = new HashMap<>(usersByName);
+        Map<String, SlackUser> newUsersByEmail = new HashMap<>(usersByEmail);
+        putUser(newUsersById, newUsersByName, newUsersByEmail, user);
+        return new SlackSessionDirectory(Collections.unmodifiableMap(newUsersById), Collections.unmodifiableMap(newUsersByName), Collections.unmodifiableMap(newUsersByEmail), botsById,
+            channelsById, channelsByName);
+    }
+
+    /**
+     * Returns a copy of this directory where the bot is added, or replaces the bot with the same
+     * id.
+     */
+    SlackSessionDirectory withBot(SlackBot bot)
+    {
+        Map<String, SlackBot> newBotsById = new HashMap<>(botsById);
+        newBotsById.put(bot.getId(), bot);
+        return new SlackSessionDirectory(usersById, usersByName, usersByEmail, Collections.unmodifiableMap(newBotsById), channelsById, channelsByName);
+    }
+
+    /**
+     * Adds or replaces the user. The keys the user held before are released first, and handed to
+     * another user holding the same name or email if any, then the user takes its keys over from
+     * whoever held them: the latest update of a user wins.
+     */
+    private static void putUser(Map<String, SlackUser> usersById, Map<String, SlackUser> usersByName, Map<String, SlackUser> usersByEmail, SlackUser user)
+    {
+        SlackUser previous = usersById.put(user.getId(), user);
+        if (previous != null)
+        {
+            if (previous.getUserName() != null && !previous.getUserName().equals(user.getUserName()))
+            {
+                releaseKey(usersById, usersByName, previous.getUserName(), previous.getId(), true);
+            }
+            if (previous.getUserMail() != null && !previous.getUserMail().equals(user.getUserMail()))
+            {
+                releaseKey(usersById, usersByEmail, previous.getUserMail(), previous.getId(), false);
+            }
+        }
+        if (user.getUserName() != null)
+        {
+            usersByName.put(user.getUserName(), user);
+        }
+        if (user.getUserMail() != null)
+        {
+            usersByEmail.put(user.getUserMail(), user);
+        }
+    }
+
+    // only scans the users when a key is given up, which takes a rename or a change of email
+    private static void releaseKey(Map<String, SlackUser> usersById, Map<String, SlackUser> index, String key, String userId, boolean byName)
+    {
+        SlackUser holder = index.get(key);
+        if (holder == null || !userId.equals(holder.getId()))
+        {
+            return;
+        }
+        index.remove(key);
+        for (SlackUser other : usersById.values())
+        {
+            if (key.equals(byName ? other.getUserName() : other.getUserMail()))
+            {
+                index.put(key, other);
+                return;
+            }
+        }
+    }
+
+    private static void putChannel(Map<String, SlackChannel> channelsById, Map<String, SlackChannel> channelsByName, SlackChannel channel)
+    {
+        SlackChannel previous = channelsById.put(channel.getId(), channel);
+        if (previous != null && previous.getName() != null)
+        {
+            channelsByName.remove(previous.getName(), previous);
+        }
+        if (channel.getName() != null)
+        {
+            channelsByName.put(channel.getName(), channel);
+        }
+    }
+
+    Map<String, SlackUser> getUsersById()
+    {
+        return usersById;
+    }
+
+    Collection<SlackUser> getUsers()
+    {
+        return usersById.values();
+    }
+
+    Collection<SlackBot> getBots()
+    {
+        return botsById.values();
+    }
+
+    Collection<SlackChannel> getChannels()
+    {
+        return channelsById.values();
+    }
+
+    SlackUser findUserById(String userId)
+    {
+        return usersById.get(userId);
+    }
+
+    SlackUser findUserByUserName(String userName)
+    {
+        return usersByName.get(userName);
+    }
+
+    SlackUser findUserByEmail(String userMail)
+    {
+        return usersByEmail.get(userMail);
+    }
+
+    SlackBot findBotById(String botId)
+    {
+        return botsById.get(botId);
+    }
+
+    SlackChannel findChannelById(String channelId)
+    {
+        return channelsById.get(channelId);
+    }
+
+    SlackChannel findChannelByName(String channelName)
+    {
+        return channelsByName.get(channelName);
+    }
+
+    /**
+     * Mutable, single threaded accumulator used while a roster is being parsed. It must not be
+     * touched anymore once built, the snapshot wraps its maps without copying them.
+     */
+    static class Builder
+    {
+        private final Map<String, SlackUser>    usersById      = new HashMap<>();
+        private final Map<String, SlackUser>    usersByName    = new HashMap<>();
+        private final Map<String, SlackUser>    usersByEmail   = new HashMap<>();
+        private final Map<String, SlackBot>     botsById       = new HashMap<>();
+        private final Map<String, SlackChannel> channelsById   = new HashMap<>();
+        private final Map<String, SlackChannel> channelsByName = new HashMap<>();
+
+        void addUser(SlackUser user)
+        {
+            putUser(usersById, usersByName, usersByEmail, user);
+        }
+
+        void addBot(SlackBot bot)
+        {
+            botsById.put(bot.getId(), bot);
+        }
+
+        void addChannel(SlackChannel channel)
+        {
+            putChannel(channelsById, channelsByName, channel);
+        }
+
+        SlackUser findUserById(String userId)
+        {
+            return usersById.get(userId);
+        }
+
+        SlackSessionDirectory build()
+        {
+            return new SlackSessionDirectory(Collections.unmodifiableMap(usersById), Collections.unmodifiableMap(usersByName), Collections.unmodifiableMap(usersByEmail),
+                Collections.unmodifiableMap(botsById), Collections.unmodifiableMap(channelsById), Collections.unmodifiableMap(channelsByName));
+        }
+    }
+}
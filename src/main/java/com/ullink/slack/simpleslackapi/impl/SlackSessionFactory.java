@@ -3,17 +3,174 @@ package com.ullink.slack.simpleslackapi.impl;
 import com.ullink.slack.simpleslackapi.SlackSession;
 
 import java.net.Proxy;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
 
 public class SlackSessionFactory
 {
     public static SlackSession createWebSocketSlackSession(String authToken)
     {
-        return new SlackWebSocketSessionImpl(authToken, true);
+        return getSlackSessionBuilder(authToken).build();
     }
 
     public static SlackSession createWebSocketSlackSession(final String authToken, Proxy.Type proxyType, String proxyAddress, int proxyPort)
     {
-        return new SlackWebSocketSessionImpl(authToken, proxyType, proxyAddress, proxyPort, true);
+        return getSlackSessionBuilder(authToken).withProxy(proxyType, proxyAddress, proxyPort).build();
+    }
+
+    public static SlackSessionFactoryBuilder getSlackSessionBuilder(String authToken)
+    {
+        return new SlackSessionFactoryBuilder(authToken);
+    }
+
+    public static class SlackSessionFactoryBuilder
+    {
+        final String authToken;
+        String       apiBaseUrl                  = "https://slack.com/api/";
+        Proxy.Type   proxyType;
+        String       proxyAddress;
+        int          proxyPort                   = -1;
+        boolean      reconnectOnDisconnection    = true;
+        int          maxConnectionsPerRoute      = 4;
+        int          maxConnections              = 20;
+        long         idleConnectionTimeoutMillis = TimeUnit.SECONDS.toMillis(30);
+        boolean      rateLimiting                = true;
+        int          httpTimeoutMillis           = (int) TimeUnit.SECONDS.toMillis(30);
+        int          dispatchThreads             = 4;
+        int          apiThreads                  = 4;
+        int          dispatchQueueCapacity       = 1000;
+        long         replyTimeoutMillis          = TimeUnit.SECONDS.toMillis(10);
+        int          maxPendingReplies           = 1000;
+        long         reconnectBackoffMillis      = TimeUnit.SECONDS.toMillis(1);
+        long         maxReconnectBackoffMillis   = TimeUnit.MINUTES.toMillis(5);
+        long         pingIntervalMillis          = TimeUnit.SECONDS.toMillis(30);
+        int          maxMissedPongs              = 2;
+        long         directoryMaxAgeMillis       = 0;
+        Path         directorySnapshotFile;
+
+        private SlackSessionFactoryBuilder(String authToken)
+        {
+            this.authToken = authToken;
+        }
+
+        public SlackSessionFactoryBuilder withProxy(Proxy.Type proxyType, String proxyAddress, int proxyPort)
+        {
+            this.proxyType = proxyType;
+            this.proxyAddress = proxyAddress;
+            this.proxyPort = proxyPort;
+            return this;
+        }
+
+        // root of the Web API, every method is called relative to it, the websocket URL comes from rtm.start
+        public SlackSessionFactoryBuilder withApiBaseUrl(String apiBaseUrl)
+        {
+            this.apiBaseUrl = apiBaseUrl.endsWith("/") ? apiBaseUrl : apiBaseUrl + "/";
+            return this;
+        }
+
+        public SlackSessionFactoryBuilder withAutoreconnectOnDisconnection(boolean reconnectOnDisconnection)
+        {
+            this.reconnectOnDisconnection = reconnectOnDisconnection;
+            return this;
+        }
+
+        // upper bound of pooled keep-alive connections to a single host (slack.com in practice)
+        public SlackSessionFactoryBuilder withMaxConnectionsPerRoute(int maxConnectionsPerRoute)
+        {
+            this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+            return this;
+        }
+
+        public SlackSessionFactoryBuilder withMaxConnections(int maxConnections)
+        {
+            this.maxConnections = maxConnections;
+            return this;
+        }
+
+        // pooled connections left unused for longer than this are closed
+        public SlackSessionFactoryBuilder withIdleConnectionTimeout(long timeout, TimeUnit unit)
+        {
+            this.idleConnectionTimeoutMillis = unit.toMillis(timeout);
+            return this;
+        }
+
+        // connect, socket read and pool lease timeout of Web API calls
+        public SlackSessionFactoryBuilder withHttpTimeout(long timeout, TimeUnit unit)
+        {
+            this.httpTimeoutMillis = (int) unit.toMillis(timeout);
+            return this;
+        }
+
+        // pace Web API calls according to Slack rate limit tiers and retry on 429
+        public SlackSessionFactoryBuilder withRateLimiting(boolean rateLimiting)
+        {
+            this.rateLimiting = rateLimiting;
+            return this;
+        }
+
+        // listeners run on this many single threaded lanes, a channel always maps to the same lane
+        public SlackSessionFactoryBuilder withDispatchThreads(int dispatchThreads)
+        {
+            this.dispatchThreads = dispatchThreads;
+            return this;
+        }
+
+        // Web API calls are made from this many threads, calls waiting on the rate limiter do not hold one
+        public SlackSessionFactoryBuilder withApiThreads(int apiThreads)
+        {
+            this.apiThreads = apiThreads;
+            return this;
+        }
+
+        // events waiting per lane before new ones are dropped
+        public SlackSessionFactoryBuilder withDispatchQueueCapacity(int dispatchQueueCapacity)
+        {
+            this.dispatchQueueCapacity = dispatchQueueCapacity;
+            return this;
+        }
+
+        // handles of websocket messages left without reply for this long are failed with a TimeoutException
+        public SlackSessionFactoryBuilder withReplyTimeout(long timeout, TimeUnit unit)
+        {
+            this.replyTimeoutMillis = unit.toMillis(timeout);
+            return this;
+        }
+
+        // websocket messages allowed to wait for their reply at the same time
+        public SlackSessionFactoryBuilder withMaxPendingReplies(int maxPendingReplies)
+        {
+            this.maxPendingReplies = maxPendingReplies;
+            return this;
+        }
+
+        // reconnection delays double from the initial backoff up to the max backoff, with jitter
+        public SlackSessionFactoryBuilder withReconnectBackoff(long initialBackoff, long maxBackoff, TimeUnit unit)
+        {
+            this.reconnectBackoffMillis = unit.toMillis(initialBackoff);
+            this.maxReconnectBackoffMillis = unit.toMillis(maxBackoff);
+            return this;
+        }
+
+        // the connection is considered lost once that many pings in a row went unanswered
+        public SlackSessionFactoryBuilder withPingInterval(long interval, TimeUnit unit, int maxMissedPongs)
+        {
+            this.pingIntervalMillis = unit.toMillis(interval);
+            this.maxMissedPongs = maxMissedPongs;
+            return this;
+        }
+
+        // reuse the roster, from memory or from the snapshot file, until it is older than max age
+        public SlackSessionFactoryBuilder withDirectoryCache(Path snapshotFile, long maxAge, TimeUnit unit)
+        {
+            this.directorySnapshotFile = snapshotFile;
+            this.directoryMaxAgeMillis = unit.toMillis(maxAge);
+            return this;
+        }
+
+        public SlackSession build()
+        {
+            return new SlackWebSocketSessionImpl(this);
+        }
     }
 
 }
@@ -0,0 +1,124 @@
+package com.ullink.slack.simpleslackapi.impl;
+
+import com.ullink.slack.simpleslackapi.SlackEventType;
+import com.ullink.slack.simpleslackapi.SlackSubscription;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable dispatch table of the subscriptions of a session, indexed by event type and channel.
+ * Subscribing builds a new table, so routing an event only reads arrays prepared beforehand and
+ * never looks at the subscriptions of other types or channels.
+ */
+final class SlackSubscriptionTable
+{
+    private static final SlackSubscription<?>[]                               NONE          = new SlackSubscription<?>[0];
+
+    static final SlackSubscriptionTable                                       EMPTY         = new SlackSubscriptionTable(Collections.<SlackSubscription<?>>emptyList());
+
+    private final List<SlackSubscription<?>>                                  subscriptions;
+
+    // by type, the subscriptions restricted to a channel, by channel id, and those taking any channel
+    private final Map<SlackEventType<?>, Map<String, SlackSubscription<?>[]>> byChannel     = new HashMap<>();
+    private final Map<SlackEventType<?>, SlackSubscription<?>[]>              anyChannel    = new HashMap<>();
+
+    private SlackSubscriptionTable(List<SlackSubscription<?>> subscriptions)
+    {
+        this.subscriptions = subscriptions;
+        Map<SlackEventType<?>, Map<String, List<SlackSubscription<?>>>> channelLists = new HashMap<>();
+        Map<SlackEventType<?>, List<SlackSubscription<?>>> anyLists = new HashMap<>();
+        for (SlackSubscription<?> subscription : subscriptions)
+        {
+            if (subscription.getChannelId() == null)
+            {
+                anyLists.computeIfAbsent(subscription.getType(), t -> new ArrayList<>()).add(subscription);
+            }
+            else
+            {
+                channelLists.computeIfAbsent(subscription.getType(), t -> new HashMap<>())
+                    .computeIfAbsent(subscription.getChannelId(), c -> new ArrayList<>()).add(subscription);
+            }
+        }
+        for (Map.Entry<SlackEventType<?>, List<SlackSubscription<?>>> entry : anyLists.entrySet())
+        {
+            anyChannel.put(entry.getKey(), entry.getValue().toArray(NONE));
+        }
+        for (Map.Entry<SlackEventType<?>, Map<String, List<SlackSubscription<?>>>> entry : channelLists.entrySet())
+        {
+            Map<String, SlackSubscription<?>[]> channels = new HashMap<>();
+            for (Map.Entry<String, List<SlackSubscription<?>>> channel : entry.getValue().entrySet())
+            {
+                channels.put(channel.getKey(), channel.getValue().toArray(NONE));
+            }
+            byChannel.put(entry.getKey(), channels);
+        }
+    }
+
+    SlackSubscriptionTable with(SlackSubscription<?> subscription)
+    {
+        List<SlackSubscription<?>> updated = new ArrayList<>(subscriptions);
+        updated.add(subscription);
+        return new SlackSubscriptionTable(updated);
+    }
+
+    SlackSubscriptionTable without(SlackSubscription<?> subscription)
+    {
+        List<SlackSubscription<?>> updated = new ArrayList<>(subscriptions);
+        if (!updated.remove(subscription))
+        {
+            return this;
+        }
+        return updated.isEmpty() ? EMPTY : new SlackSubscriptionTable(updated);
+    }
+
+    /**
+     * Returns whether any subscription may want an event of that type in that channel, before the
+     * event is parsed.
+     */
+    boolean isSubscribed(SlackEventType<?> type, String channelId)
+    {
+        return anyChannel.containsKey(type) || forChannel(type, channelId).length > 0;
+    }
+
+    /**
+     * Hands the event to the listeners subscribed to its type and channel whose prefix, if any,
+     * the text starts with.
+     */
+    <T> void deliver(SlackEventType<T> type, String channelId, String text, T event)
+    {
+        deliver(forChannel(type, channelId), text, event);
+        SlackSubscription<?>[] any = anyChannel.get(type);
+        if (any != null)
+        {
+            deliver(any, text, event);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> void deliver(SlackSubscription<?>[] subscriptions, String text, T event)
+    {
+        for (SlackSubscription<?> subscription : subscriptions)
+        {
+            if (subscription.acceptsText(text))
+            {
+                // the table only files a subscription under its own type
+                ((SlackSubscription<T>) subscription).getListener().onEvent(event);
+            }
+        }
+    }
+
+    private SlackSubscription<?>[] forChannel(SlackEventType<?> type, String channelId)
+    {
+        Map<String, SlackSubscription<?>[]> channels = byChannel.get(type);
+        if (channels == null || channelId == null)
+        {
+            return NONE;
+        }
+        SlackSubscription<?>[] subscriptions = channels.get(channelId);
+        return subscriptions != null ? subscriptions : NONE;
+    }
+}
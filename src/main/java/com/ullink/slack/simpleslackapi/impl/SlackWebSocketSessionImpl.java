@@ -1,16 +1,13 @@
 package com.ullink.slack.simpleslackapi.impl;
 
-import com.google.common.io.CharStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.ullink.slack.simpleslackapi.*;
+import com.ullink.slack.simpleslackapi.impl.SlackFrameClassifier.FrameType;
 import org.apache.http.HttpHost;
-import org.apache.http.HttpResponse;
 import org.apache.http.NameValuePair;
-import org.apache.http.client.HttpClient;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.impl.conn.DefaultProxyRoutePlanner;
 import org.apache.http.message.BasicNameValuePair;
 import org.glassfish.tyrus.client.ClientManager;
 import org.glassfish.tyrus.client.ClientProperties;
@@ -20,204 +17,426 @@ import org.json.simple.parser.ParseException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.websocket.CloseReason;
 import javax.websocket.Endpoint;
 import javax.websocket.EndpointConfig;
 import javax.websocket.MessageHandler;
 import javax.websocket.Session;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.net.Proxy;
+import java.io.UnsupportedEncodingException;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 class SlackWebSocketSessionImpl extends AbstractSlackSessionImpl implements SlackSession, MessageHandler.Whole<String>
 {
 
     private static final Logger               LOGGER                     = LoggerFactory.getLogger(SlackWebSocketSessionImpl.class);
 
-    private static final String               SLACK_HTTPS_AUTH_URL       = "https://slack.com/api/rtm.start?token=";
+    private static final int                  MAX_RATE_LIMITED_RETRIES   = 3;
+    private static final int                  LOGGED_PAYLOAD_PREFIX      = 80;
 
-    private Session                           websocketSession;
+    private volatile Session                  websocketSession;
+    private final String                      apiBaseUrl;
     private String                            authToken;
     private String                            proxyAddress;
     private int                               proxyPort                  = -1;
     HttpHost                                  proxyHost;
-    private long                              lastPingSent               = 0;
-    private volatile long                     lastPingAck                = 0;
 
-    private long                              messageId                  = 0;
-
-    private long                              lastConnectionTime         = -1;
+    private final AtomicLong                  messageId                  = new AtomicLong();
 
     private boolean                           reconnectOnDisconnection;
 
+    // messages sent over the websocket which still wait for their reply, keyed by message id
     private Map<Long, SlackMessageHandleImpl> pendingMessageMap          = new ConcurrentHashMap<Long, SlackMessageHandleImpl>();
+    private final long                        replyTimeoutNanos;
+    private final int                         maxPendingReplies;
+    private final LongAdder                   expiredReplies;
 
-    private Thread                            connectionMonitoringThread = null;
+    // per method metrics, looked up by the method name without building the metric name
+    private final Map<String, ApiMetrics>     apiMetrics                 = new ConcurrentHashMap<>();
+    private final Map<FrameType, LongAdder>   frameCounters              = new EnumMap<>(FrameType.class);
+    private final LongAdder                   invalidFrames;
 
-    SlackWebSocketSessionImpl(String authToken, Proxy.Type proxyType, String proxyAddress, int proxyPort, boolean reconnectOnDisconnection)
-    {
-        this.authToken = authToken;
-        this.proxyAddress = proxyAddress;
-        this.proxyPort = proxyPort;
-        this.proxyHost = new HttpHost(proxyAddress, proxyPort);
-        this.reconnectOnDisconnection = reconnectOnDisconnection;
-    }
+    // frames are delivered one at a time by the websocket, the classifier is only used from there
+    private final SlackFrameClassifier        frameClassifier            = new SlackFrameClassifier();
 
-    SlackWebSocketSessionImpl(String authToken, boolean reconnectOnDisconnection)
-    {
-        this.authToken = authToken;
-        this.reconnectOnDisconnection = reconnectOnDisconnection;
-    }
+    // a websocket endpoint does not accept concurrent sends
+    private final Object                      websocketSendLock          = new Object();
 
-    @Override
-    public void connect()
+    private final ScheduledExecutorService    scheduler;
+    private final ExecutorService             apiExecutor;
+    // handles of Web API calls not answered yet, failed if the session is closed first
+    private final Set<SlackMessageHandleImpl> pendingApiCalls            = ConcurrentHashMap.newKeySet();
+    private final SlackHttpConnectionPool     httpPool;
+    private final SlackRateLimiter            rateLimiter;
+    private final SlackEventDispatcher        dispatcher;
+    private final SlackConnectionSupervisor   supervisor;
+    private final SlackLivenessTracker        liveness;
+
+    // the directory is kept current by events and only downloaded again once older than this
+    private final long                        directoryMaxAgeMillis;
+    private final Path                        directorySnapshotFile;
+    private volatile String                   teamId;
+    private volatile long                     directoryTakenAt;
+    private final AtomicBoolean               snapshotSavePending        = new AtomicBoolean();
+
+    SlackWebSocketSessionImpl(SlackSessionFactory.SlackSessionFactoryBuilder config)
     {
-        long currentTime = System.nanoTime();
-        while (lastConnectionTime >= 0 && currentTime - lastConnectionTime < TimeUnit.SECONDS.toNanos(30))
+        this.apiBaseUrl = config.apiBaseUrl;
+        this.authToken = config.authToken;
+        this.proxyAddress = config.proxyAddress;
+        this.proxyPort = config.proxyPort;
+        if (proxyAddress != null)
         {
-            LOGGER.warn("Previous connection was made less than 30s ago, waiting 10s before trying to connect");
-            try
+            this.proxyHost = new HttpHost(proxyAddress, proxyPort);
+        }
+        this.reconnectOnDisconnection = config.reconnectOnDisconnection;
+        this.scheduler = Executors.newScheduledThreadPool(2, new ThreadFactoryBuilder().setNameFormat("slack-session-scheduler-%d").setDaemon(true).build());
+        this.apiExecutor = Executors.newFixedThreadPool(config.apiThreads, new ThreadFactoryBuilder().setNameFormat("slack-api-%d").setDaemon(true).build());
+        this.httpPool = new SlackHttpConnectionPool(proxyHost, config.maxConnectionsPerRoute, config.maxConnections, config.idleConnectionTimeoutMillis, config.httpTimeoutMillis, scheduler);
+        this.rateLimiter = new SlackRateLimiter(config.rateLimiting, metrics);
+        this.dispatcher = new SlackEventDispatcher(config.dispatchThreads, config.dispatchQueueCapacity, metrics);
+        this.supervisor = new SlackConnectionSupervisor(new SlackConnectionSupervisor.Connector()
+        {
+            @Override
+            public void connect() throws Exception
+            {
+                // the directory may have changed while the websocket was down
+                establishConnection(false);
+            }
+        }, scheduler, config.reconnectBackoffMillis, config.maxReconnectBackoffMillis, metrics);
+        this.liveness = new SlackLivenessTracker(new SlackLivenessTracker.Link()
+        {
+            @Override
+            public boolean isConnected()
+            {
+                return websocketSession != null;
+            }
+
+            @Override
+            public void send(String frame) throws IOException
             {
-                Thread.sleep(10000);
-                currentTime = System.nanoTime();
+                sendOverWebSocket(frame);
             }
-            catch (InterruptedException e)
+
+            @Override
+            public void livenessLost(String reason)
             {
-                // TODO: handle this case
+                dropConnection(reason);
             }
+        }, this::getNextMessageId, scheduler, config.pingIntervalMillis, config.maxMissedPongs, metrics);
+        this.directoryMaxAgeMillis = config.directoryMaxAgeMillis;
+        this.directorySnapshotFile = config.directorySnapshotFile;
+        this.replyTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(config.replyTimeoutMillis);
+        this.maxPendingReplies = config.maxPendingReplies;
+        this.expiredReplies = metrics.counter("rtm.reply.expired");
+        metrics.gauge("rtm.reply.pending", () -> pendingMessageMap.size());
+        for (FrameType type : FrameType.values())
+        {
+            frameCounters.put(type, metrics.counter("rtm.frames." + type.name().toLowerCase()));
         }
-        if(websocketSession != null && websocketSession.isOpen()) {
-            try {
-                websocketSession.close();
+        this.invalidFrames = metrics.counter("rtm.frames.invalid");
+        long sweepPeriod = Math.max(100, config.replyTimeoutMillis / 4);
+        scheduler.scheduleWithFixedDelay(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                evictExpiredReplies();
             }
-            catch(IOException e) {
-                // meh
+        }, sweepPeriod, sweepPeriod, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public boolean connect()
+    {
+        try
+        {
+            establishConnection(true);
+            return true;
+        }
+        catch (Exception e)
+        {
+            LOGGER.error("unable to connect to slack", e);
+            if (reconnectOnDisconnection)
+            {
+                supervisor.onConnectionLost("initial connection failed");
             }
+            return false;
         }
+    }
+
+    /**
+     * Opens the websocket. A snapshot of the directory, or the directory already held, is only
+     * reused on a cold start: a reconnection always downloads the roster again, the events missed
+     * while disconnected are not replayed.
+     */
+    private void establishConnection(boolean coldStart) throws Exception
+    {
+        closeWebSocket();
         LOGGER.info("connecting to slack");
-        lastConnectionTime = currentTime;
-        try
+        if (teamId == null && directorySnapshotFile != null)
         {
-            HttpClient httpClient = getHttpClient();
-            HttpGet request = new HttpGet(SLACK_HTTPS_AUTH_URL + authToken);
-            HttpResponse response = httpClient.execute(request);
-            String jsonResponse = CharStreams.toString(new InputStreamReader(response.getEntity().getContent()));
-            SlackJSONSessionStatusParser sessionParser = new SlackJSONSessionStatusParser(jsonResponse);
-            sessionParser.parse();
-            users = sessionParser.getUsers();
-            bots = sessionParser.getBots();
-            channels = sessionParser.getChannels();
-            LOGGER.info(users.size() + " users found on this session");
-            LOGGER.info(bots.size() + " bots found on this session");
-            LOGGER.info(channels.size() + " channels found on this session");
-
-            String wssurl = sessionParser.getWebSocketURL();
-
-            LOGGER.debug("retrieved websocket URL : " + wssurl);
-            ClientManager client = ClientManager.createClient();
-            client.getProperties().put(ClientProperties.LOG_HTTP_UPGRADE, true);
-            if (proxyAddress != null)
-            {
-                client.getProperties().put(ClientProperties.PROXY_URI, "http://" + proxyAddress + ":" + proxyPort);
+            loadDirectorySnapshot();
+        }
+        SlackJSONSessionStatusParser sessionParser = null;
+        if (coldStart && isDirectoryFresh())
+        {
+            // the roster we hold is recent enough, only ask for a websocket URL
+            sessionParser = startRtm("rtm.connect");
+            if (sessionParser.getWebSocketURL() != null && !teamId.equals(sessionParser.getTeamId()))
+            {
+                LOGGER.info("cached directory belongs to team " + teamId + ", downloading the roster again");
+                sessionParser = null;
             }
-            final MessageHandler handler = this;
-            LOGGER.debug("initiating connection to websocket");
-            websocketSession = client.connectToServer(new Endpoint()
+            else if (sessionParser.getWebSocketURL() != null)
             {
-                @Override
-                public void onOpen(Session session, EndpointConfig config)
-                {
-                    session.addMessageHandler(handler);
-                }
+                LOGGER.info("reusing the directory of " + directory().getUsers().size() + " users and " + directory().getChannels().size() + " channels");
+            }
+        }
+        if (sessionParser == null)
+        {
+            sessionParser = startRtm("rtm.start");
+            if (sessionParser.getWebSocketURL() != null)
+            {
+                SlackSessionDirectory newDirectory = sessionParser.getDirectory();
+                publishDirectory(newDirectory);
+                teamId = sessionParser.getTeamId();
+                directoryTakenAt = System.currentTimeMillis();
+                LOGGER.info(newDirectory.getUsers().size() + " users found on this session");
+                LOGGER.info(newDirectory.getBots().size() + " bots found on this session");
+                LOGGER.info(newDirectory.getChannels().size() + " channels found on this session");
+                scheduleDirectorySnapshot();
+            }
+        }
+        if (sessionParser.getWebSocketURL() == null)
+        {
+            throw new IOException("slack refused the session : " + sessionParser.getError());
+        }
+
+        String wssurl = sessionParser.getWebSocketURL();
 
-            }, URI.create(wssurl));
-            for (SlackMessageListener slackMessageListener : messageListeners)
+        LOGGER.debug("retrieved websocket URL : " + wssurl);
+        ClientManager client = ClientManager.createClient();
+        client.getProperties().put(ClientProperties.LOG_HTTP_UPGRADE, true);
+        if (proxyAddress != null)
+        {
+            client.getProperties().put(ClientProperties.PROXY_URI, "http://" + proxyAddress + ":" + proxyPort);
+        }
+        final MessageHandler handler = this;
+        LOGGER.debug("initiating connection to websocket");
+        liveness.reset();
+        websocketSession = client.connectToServer(new Endpoint()
+        {
+            @Override
+            public void onOpen(Session session, EndpointConfig config)
             {
-                slackMessageListener.onSessionLoad(this);
+                session.addMessageHandler(handler);
             }
-            if (websocketSession != null)
+
+            @Override
+            public void onClose(Session session, CloseReason closeReason)
             {
-                LOGGER.debug("websocket connection established");
-                LOGGER.info("slack session ready");
+                onWebSocketLost(session, "websocket closed (" + closeReason + ")");
             }
-            if (connectionMonitoringThread == null)
+
+            @Override
+            public void onError(Session session, Throwable throwable)
             {
-                LOGGER.debug("starting connection monitoring");
-                startConnectionMonitoring();
+                LOGGER.warn("websocket error", throwable);
+                onWebSocketLost(session, "websocket error (" + throwable + ")");
             }
+
+        }, URI.create(wssurl));
+        supervisor.onConnected();
+        for (SlackMessageListener slackMessageListener : messageListeners)
+        {
+            slackMessageListener.onSessionLoad(this);
+        }
+        LOGGER.debug("websocket connection established");
+        LOGGER.info("slack session ready");
+        liveness.start();
+    }
+
+    private SlackJSONSessionStatusParser startRtm(String method) throws Exception
+    {
+        HttpGet request = new HttpGet(apiBaseUrl + method + "?token=" + authToken);
+        ApiMetrics methodMetrics = apiMetrics(method);
+        long startedAt = System.nanoTime();
+        try
+        {
+            SlackJSONSessionStatusParser parser = httpPool.execute(request, new SlackHttpConnectionPool.ContentReader<SlackJSONSessionStatusParser>()
+            {
+                @Override
+                public SlackJSONSessionStatusParser read(InputStream content) throws Exception
+                {
+                    SlackJSONSessionStatusParser parser = new SlackJSONSessionStatusParser(new InputStreamReader(content, StandardCharsets.UTF_8));
+                    parser.parse();
+                    return parser;
+                }
+            });
+            (parser.getWebSocketURL() != null ? methodMetrics.sent : methodMetrics.failed).increment();
+            return parser;
         }
         catch (Exception e)
         {
-            // TODO : improve exception handling
-            e.printStackTrace();
+            methodMetrics.failed.increment();
+            throw e;
+        }
+        finally
+        {
+            methodMetrics.latency.recordNanos(System.nanoTime() - startedAt);
+        }
+    }
+
+    private ApiMetrics apiMetrics(String method)
+    {
+        ApiMetrics methodMetrics = apiMetrics.get(method);
+        if (methodMetrics == null)
+        {
+            methodMetrics = apiMetrics.computeIfAbsent(method, m -> new ApiMetrics(metrics, m));
         }
+        return methodMetrics;
+    }
 
+    private boolean isDirectoryFresh()
+    {
+        return teamId != null && System.currentTimeMillis() - directoryTakenAt < directoryMaxAgeMillis;
     }
 
-    private void startConnectionMonitoring()
+    private void loadDirectorySnapshot()
     {
-        connectionMonitoringThread = new Thread()
+        SlackDirectorySnapshot snapshot = SlackDirectorySnapshot.read(directorySnapshotFile);
+        if (snapshot != null && snapshot.getTeamId() != null)
+        {
+            publishDirectory(snapshot.getDirectory());
+            teamId = snapshot.getTeamId();
+            directoryTakenAt = snapshot.getTakenAt();
+            LOGGER.info("loaded directory snapshot " + directorySnapshotFile);
+        }
+    }
+
+    // writes are coalesced, a burst of directory events leads to a single write
+    private void scheduleDirectorySnapshot()
+    {
+        if (directorySnapshotFile == null || !snapshotSavePending.compareAndSet(false, true))
+        {
+            return;
+        }
+        scheduler.schedule(new Runnable()
         {
             @Override
             public void run()
             {
-                LOGGER.debug("monitoring thread started");
-                while (true)
+                if (snapshotSavePending.getAndSet(false))
                 {
-                    try
-                    {
-                        if (lastPingSent != lastPingAck)
-                        {
-                            // disconnection happened
-                            LOGGER.warn("Connection lost...");
-                            websocketSession.close();
-                            lastPingSent = 0;
-                            lastPingAck = 0;
-                            if (reconnectOnDisconnection)
-                            {
-                                connect();
-                                continue;
-                            }
-                        }
-                        else
-                        {
-                            lastPingSent = getNextMessageId();
-                            LOGGER.debug("sending ping " + lastPingSent);
-                            websocketSession.getBasicRemote().sendText("{\"type\":\"ping\",\"id\":" + lastPingSent + "}");
-                        }
-                        Thread.sleep(30000);
-                    }
-                    catch (InterruptedException e)
-                    {
-                        break;
-                    }
-                    catch (IOException e)
-                    {
-                        LOGGER.error("unexpected exception on monitoring thread ", e);
-                    }
+                    saveDirectorySnapshot();
                 }
-                LOGGER.debug("monitoring thread stopped");
             }
-        };
-        connectionMonitoringThread.start();
+        }, 5, TimeUnit.SECONDS);
+    }
+
+    private void saveDirectorySnapshot()
+    {
+        try
+        {
+            new SlackDirectorySnapshot(teamId, directoryTakenAt, directory()).write(directorySnapshotFile);
+        }
+        catch (IOException e)
+        {
+            LOGGER.warn("unable to write directory snapshot " + directorySnapshotFile, e);
+        }
+    }
+
+    // only the current socket going away matters, sockets we closed ourselves are already detached
+    private void onWebSocketLost(Session session, String reason)
+    {
+        if (session == websocketSession)
+        {
+            websocketSession = null;
+            if (reconnectOnDisconnection)
+            {
+                supervisor.onConnectionLost(reason);
+            }
+        }
+    }
+
+    private void closeWebSocket()
+    {
+        Session session = websocketSession;
+        websocketSession = null;
+        if (session != null && session.isOpen())
+        {
+            try
+            {
+                session.close();
+            }
+            catch (IOException e)
+            {
+                LOGGER.warn("unable to close websocket session cleanly", e);
+            }
+        }
+    }
+
+    @Override
+    public void disconnect()
+    {
+        supervisor.stop();
+        liveness.stop();
+        closeWebSocket();
+        if (snapshotSavePending.getAndSet(false))
+        {
+            saveDirectorySnapshot();
+        }
+        dispatcher.shutdown();
+        apiExecutor.shutdownNow();
+        httpPool.close();
+        scheduler.shutdownNow();
+        for (SlackMessageHandleImpl handle : pendingApiCalls)
+        {
+            handle.setFailure(new IOException("slack session closed"));
+        }
+        pendingApiCalls.clear();
+        LOGGER.info("slack session closed");
+    }
+
+    private void dropConnection(String reason)
+    {
+        Session session = websocketSession;
+        closeWebSocket();
+        if (session != null && reconnectOnDisconnection)
+        {
+            supervisor.onConnectionLost(reason);
+        }
     }
 
     @Override
     public SlackMessageHandle sendMessage(SlackChannel channel, String message, SlackAttachment attachment, String userName, String iconURL)
     {
-        SlackMessageHandleImpl handle = new SlackMessageHandleImpl(getNextMessageId());
-        HttpClient client = getHttpClient();
-        HttpPost request = new HttpPost("https://slack.com/api/chat.postMessage");
         List<NameValuePair> nameValuePairList = new ArrayList<>();
         nameValuePairList.add(new BasicNameValuePair("token", authToken));
         nameValuePairList.add(new BasicNameValuePair("channel", channel.getId()));
         nameValuePairList.add(new BasicNameValuePair("as_user", "true"));
-            nameValuePairList.add(new BasicNameValuePair("text", message));
+        nameValuePairList.add(new BasicNameValuePair("text", message));
         if (iconURL != null)
         {
             nameValuePairList.add(new BasicNameValuePair("icon_url", iconURL));
@@ -227,99 +446,113 @@ class SlackWebSocketSessionImpl extends AbstractSlackSessionImpl implements Slac
         {
             nameValuePairList.add(new BasicNameValuePair("attachments", SlackJSONAttachmentFormatter.encodeAttachments(attachment).toString()));
         }
-        try
-        {
-            request.setEntity(new UrlEncodedFormEntity(nameValuePairList, "UTF-8"));
-            HttpResponse response = client.execute(request);
-            String jsonResponse = CharStreams.toString(new InputStreamReader(response.getEntity().getContent()));
-            LOGGER.debug("PostMessage return: " + jsonResponse);
-            SlackReplyImpl reply = SlackJSONReplyParser.decode(parseObject(jsonResponse));
-            handle.setSlackReply(reply);
-        }
-        catch (Exception e)
-        {
-            // TODO : improve exception handling
-            e.printStackTrace();
-        }
-        return handle;
+        return postToApi("chat.postMessage", channel.getId(), nameValuePairList);
     }
 
     @Override
     public SlackMessageHandle deleteMessage(String timeStamp, SlackChannel channel)
     {
-        SlackMessageHandleImpl handle = new SlackMessageHandleImpl(getNextMessageId());
-        HttpClient client = getHttpClient();
-        HttpPost request = new HttpPost("https://slack.com/api/chat.delete");
         List<NameValuePair> nameValuePairList = new ArrayList<>();
         nameValuePairList.add(new BasicNameValuePair("token", authToken));
         nameValuePairList.add(new BasicNameValuePair("channel", channel.getId()));
         nameValuePairList.add(new BasicNameValuePair("ts", timeStamp));
-        try
-        {
-            request.setEntity(new UrlEncodedFormEntity(nameValuePairList,"UTF-8"));
-            HttpResponse response = client.execute(request);
-            String jsonResponse = CharStreams.toString(new InputStreamReader(response.getEntity().getContent()));
-            LOGGER.debug("PostMessage return: " + jsonResponse);
-            SlackReplyImpl reply = SlackJSONReplyParser.decode(parseObject(jsonResponse));
-            handle.setSlackReply(reply);
-        }
-        catch (Exception e)
-        {
-            // TODO : improve exception handling
-            e.printStackTrace();
-        }
-        return handle;
+        return postToApi("chat.delete", channel.getId(), nameValuePairList);
     }
 
     @Override
     public SlackMessageHandle updateMessage(String timeStamp, SlackChannel channel, String message)
     {
-        SlackMessageHandleImpl handle = new SlackMessageHandleImpl(getNextMessageId());
-        HttpClient client = getHttpClient();
-        HttpPost request = new HttpPost("https://slack.com/api/chat.update");
         List<NameValuePair> nameValuePairList = new ArrayList<>();
         nameValuePairList.add(new BasicNameValuePair("token", authToken));
         nameValuePairList.add(new BasicNameValuePair("ts", timeStamp));
         nameValuePairList.add(new BasicNameValuePair("channel", channel.getId()));
         nameValuePairList.add(new BasicNameValuePair("text", message));
+        return postToApi("chat.update", channel.getId(), nameValuePairList);
+    }
+
+    @Override
+    public SlackMessageHandle uploadSnippet(SlackChannel channel, String content, String title)
+    {
+        List<NameValuePair> nameValuePairList = new ArrayList<>();
+        nameValuePairList.add(new BasicNameValuePair("token", authToken));
+        nameValuePairList.add(new BasicNameValuePair("channels", channel.getId()));
+        nameValuePairList.add(new BasicNameValuePair("content", content));
+        nameValuePairList.add(new BasicNameValuePair("filetype", "text"));
+        if (title != null)
+        {
+            nameValuePairList.add(new BasicNameValuePair("title", title));
+        }
+        return postToApi("files.upload", channel.getId(), nameValuePairList);
+    }
+
+    /**
+     * Queues the Web API call and returns its handle at once. Waits imposed by the rate limiter or
+     * by a Retry-After are timed on the session scheduler, only the HTTP round trip holds one of
+     * the API threads.
+     */
+    private SlackMessageHandle postToApi(String method, String channelId, List<NameValuePair> parameters)
+    {
+        SlackMessageHandleImpl handle = new SlackMessageHandleImpl(getNextMessageId());
+        ApiCall call = new ApiCall(method, channelId, new HttpPost(apiBaseUrl + method), handle);
         try
         {
-            request.setEntity(new UrlEncodedFormEntity(nameValuePairList,"UTF-8"));
-            HttpResponse response = client.execute(request);
-            String jsonResponse = CharStreams.toString(new InputStreamReader(response.getEntity().getContent()));
-            LOGGER.debug("PostMessage return: " + jsonResponse);
-            SlackReplyImpl reply = SlackJSONReplyParser.decode(parseObject(jsonResponse));
-            handle.setSlackReply(reply);
+            call.request.setEntity(new UrlEncodedFormEntity(parameters, "UTF-8"));
         }
-        catch (Exception e)
+        catch (UnsupportedEncodingException e)
         {
-            // TODO : improve exception handling
-            e.printStackTrace();
+            LOGGER.error("unable to call " + method, e);
+            call.fail(e);
+            return handle;
         }
+        pendingApiCalls.add(handle);
+        scheduleApiCall(call);
         return handle;
     }
 
-    private HttpClient getHttpClient()
+    private void scheduleApiCall(final ApiCall call)
     {
-        HttpClient client = null;
-        if (proxyHost != null)
+        long waitNanos = rateLimiter.reserve(call.method, call.channelId);
+        if (waitNanos <= 0)
         {
-            client = HttpClientBuilder.create().setRoutePlanner(new DefaultProxyRoutePlanner(proxyHost)).build();
+            executeApiCall(call);
+            return;
         }
-        else
+        try
+        {
+            scheduler.schedule(() -> executeApiCall(call), waitNanos, TimeUnit.NANOSECONDS);
+        }
+        catch (RejectedExecutionException e)
+        {
+            call.fail(new IOException("slack session closed"));
+        }
+    }
+
+    private void executeApiCall(ApiCall call)
+    {
+        try
+        {
+            apiExecutor.execute(call);
+        }
+        catch (RejectedExecutionException e)
         {
-            client = HttpClientBuilder.create().build();
+            call.fail(new IOException("slack session closed"));
         }
-        return client;
     }
 
     @Override
     public SlackMessageHandle sendMessageOverWebSocket(SlackChannel channel, String message, SlackAttachment attachment)
     {
-        SlackMessageHandleImpl handle = new SlackMessageHandleImpl(getNextMessageId());
+        long id = getNextMessageId();
+        SlackMessageHandleImpl handle = new SlackMessageHandleImpl(id);
+        if (pendingMessageMap.size() >= maxPendingReplies)
+        {
+            handle.setFailure(new IOException("too many messages waiting for a reply"));
+            return handle;
+        }
         try
         {
             JSONObject messageJSON = new JSONObject();
+            messageJSON.put("id", id);
             messageJSON.put("type", "message");
             messageJSON.put("channel", channel.getId());
             messageJSON.put("text", message);
@@ -327,90 +560,334 @@ class SlackWebSocketSessionImpl extends AbstractSlackSessionImpl implements Slac
             {
                 messageJSON.put("attachments", SlackJSONAttachmentFormatter.encodeAttachments(attachment));
             }
-            websocketSession.getBasicRemote().sendText(messageJSON.toJSONString());
+            handle.setSentAt(System.nanoTime());
+            pendingMessageMap.put(id, handle);
+            sendOverWebSocket(messageJSON.toJSONString());
         }
         catch (Exception e)
         {
-            // TODO : improve exception handling
-            e.printStackTrace();
+            pendingMessageMap.remove(id);
+            LOGGER.error("unable to send message over websocket", e);
+            handle.setFailure(e);
         }
         return handle;
     }
 
-    private synchronized long getNextMessageId()
+    private void sendOverWebSocket(String text) throws IOException
     {
-        return messageId++;
+        Session session = websocketSession;
+        if (session == null || !session.isOpen())
+        {
+            throw new IOException("websocket is not connected");
+        }
+        synchronized (websocketSendLock)
+        {
+            session.getBasicRemote().sendText(text);
+        }
+    }
+
+    private void evictExpiredReplies()
+    {
+        long now = System.nanoTime();
+        Iterator<SlackMessageHandleImpl> iterator = pendingMessageMap.values().iterator();
+        while (iterator.hasNext())
+        {
+            SlackMessageHandleImpl handle = iterator.next();
+            if (now - handle.getSentAt() > replyTimeoutNanos)
+            {
+                iterator.remove();
+                expiredReplies.increment();
+                handle.setFailure(new TimeoutException("no reply received for message " + handle.getMessageId()));
+            }
+        }
+    }
+
+    private long getNextMessageId()
+    {
+        return messageId.getAndIncrement();
     }
 
     @Override
     public void onMessage(String message)
     {
-        LOGGER.debug("receiving from websocket " + message);
-        if (message.contains("{\"type\":\"pong\",\"reply_to\""))
+        LOGGER.debug("receiving from websocket {}", message);
+        long pongReplyTo = SlackLivenessTracker.parsePongReplyTo(message);
+        if (pongReplyTo != -1)
         {
-            int rightBracketIdx = message.indexOf('}');
-            String toParse = message.substring(26, rightBracketIdx);
-            lastPingAck = Integer.parseInt(toParse);
-            LOGGER.debug("pong received " + lastPingAck);
+            frameCounters.get(FrameType.PONG).increment();
+            liveness.onPong(pongReplyTo);
         }
         else
         {
+            if (!frameClassifier.classify(message))
+            {
+                invalidFrames.increment();
+                return;
+            }
+            FrameType type = frameClassifier.getType();
+            frameCounters.get(type).increment();
+            // one table for the whole frame, even if a subscription changes meanwhile
+            final SlackSubscriptionTable table = subscriptions;
+            final String frameChannel = frameClassifier.getChannel();
+            if (type == FrameType.OTHER || (type == FrameType.MESSAGE && messageListeners.isEmpty() && !table.isSubscribed(SlackEventType.MESSAGE, frameChannel)))
+            {
+                // nobody consumes it, do not bother parsing it
+                return;
+            }
+
             JSONObject object = parseObject(message);
+            if (object == null)
+            {
+                invalidFrames.increment();
+                return;
+            }
 
-            String type = (String) object.get("type");
-            if (type == null)
+            if (type == FrameType.REPLY)
             {
                 // that's a reply
                 SlackReply slackReply = SlackJSONReplyParser.decode(object);
-                SlackMessageHandleImpl handle = pendingMessageMap.get(slackReply.getReplyTo());
-                handle.setSlackReply(slackReply);
-                pendingMessageMap.remove(slackReply.getReplyTo());
+                SlackMessageHandleImpl handle = pendingMessageMap.remove(slackReply.getReplyTo());
+                if (handle != null)
+                {
+                    handle.setSlackReply(slackReply);
+                }
             }
-            else if ("message".equals(type))
+            else if (type == FrameType.PONG)
             {
-                SlackMessage slackMessage = SlackJSONMessageParser.decode(this, object);
+                // pong laid out differently than usual, the fast path did not recognize it
+                Object replyTo = object.get("reply_to");
+                if (replyTo instanceof Number)
+                {
+                    liveness.onPong(((Number) replyTo).longValue());
+                }
+            }
+            else if (type == FrameType.MESSAGE)
+            {
+                final SlackMessage slackMessage = SlackJSONMessageParser.decode(this, object);
                 if (slackMessage != null)
                 {
-                    for (SlackMessageListener slackMessageListener : messageListeners)
+                    dispatcher.dispatch(frameChannel, new Runnable()
                     {
-                        slackMessageListener.onMessage(slackMessage);
-                    }
+                        @Override
+                        public void run()
+                        {
+                            for (SlackMessageListener slackMessageListener : messageListeners)
+                            {
+                                slackMessageListener.onMessage(slackMessage);
+                            }
+                            table.deliver(SlackEventType.MESSAGE, frameChannel, slackMessage.getMessageContent(), slackMessage);
+                        }
+                    });
                 }
             }
-            else if ("group_joined".equals(type))
+            else if (type == FrameType.GROUP_JOINED)
             {
-                SlackGroupJoined groupJoined = parseGroupJoined(object);
+                final SlackGroupJoined groupJoined = parseGroupJoined(object);
                 if (groupJoined != null)
                 {
-                    SlackChannel channel = groupJoined.getSlackChannel();
+                    final SlackChannel channel = groupJoined.getSlackChannel();
                     if (channel != null)
                     {
-                        channels.put(channel.getId(), channel);
+                        updateDirectory(current -> current.withChannel(channel));
+                        scheduleDirectorySnapshot();
+                        if (table.isSubscribed(SlackEventType.GROUP_JOINED, channel.getId()))
+                        {
+                            dispatcher.dispatch(channel.getId(), new Runnable()
+                            {
+                                @Override
+                                public void run()
+                                {
+                                    table.deliver(SlackEventType.GROUP_JOINED, channel.getId(), null, groupJoined);
+                                }
+                            });
+                        }
                     }
                 }
             }
+            else if (type == FrameType.TEAM_JOIN || type == FrameType.USER_CHANGE)
+            {
+                JSONObject jsonUser = objectMember(object, "user");
+                if (jsonUser == null || !(jsonUser.get("id") instanceof String))
+                {
+                    invalidFrames.increment();
+                    return;
+                }
+                final SlackUser user = SlackJSONParsingUtils.buildSlackUser(jsonUser);
+                updateDirectory(current -> current.withUser(user));
+                scheduleDirectorySnapshot();
+            }
+            else if (type == FrameType.BOT_ADDED || type == FrameType.BOT_CHANGED)
+            {
+                JSONObject jsonBot = objectMember(object, "bot");
+                if (jsonBot == null || !(jsonBot.get("id") instanceof String))
+                {
+                    invalidFrames.increment();
+                    return;
+                }
+                final SlackBot bot = SlackJSONParsingUtils.buildSlackBot(jsonBot);
+                updateDirectory(current -> current.withBot(bot));
+                scheduleDirectorySnapshot();
+            }
+            else if (type == FrameType.CHANNEL_CREATED || type == FrameType.CHANNEL_RENAME || type == FrameType.GROUP_RENAME)
+            {
+                JSONObject channel = objectMember(object, "channel");
+                if (channel == null || !(channel.get("id") instanceof String) || !(channel.get("name") instanceof String))
+                {
+                    invalidFrames.increment();
+                    return;
+                }
+                final String channelId = (String) channel.get("id");
+                final String channelName = (String) channel.get("name");
+                updateDirectory(current -> current.withChannel(renamedChannel(current.findChannelById(channelId), channelId, channelName)));
+                scheduleDirectorySnapshot();
+            }
+            else if (type == FrameType.CHANNEL_DELETED || type == FrameType.GROUP_LEFT)
+            {
+                if (!(object.get("channel") instanceof String))
+                {
+                    invalidFrames.increment();
+                    return;
+                }
+                final String channelId = (String) object.get("channel");
+                updateDirectory(current -> current.withoutChannel(channelId));
+                scheduleDirectorySnapshot();
+            }
+        }
+    }
+
+    // the member if it is an object, null if it is missing or of another kind
+    private static JSONObject objectMember(JSONObject object, String key)
+    {
+        Object member = object.get(key);
+        return member instanceof JSONObject ? (JSONObject) member : null;
+    }
+
+    // channels are immutable once published, a rename builds a copy which keeps the members
+    private static SlackChannel renamedChannel(SlackChannel previous, String id, String name)
+    {
+        if (previous == null)
+        {
+            return new SlackChannelImpl(id, name, null, null);
+        }
+        SlackChannelImpl channel = new SlackChannelImpl(id, name, previous.getTopic(), previous.getPurpose());
+        for (SlackUser member : previous.getMembers())
+        {
+            channel.addUser(member);
         }
+        return channel;
     }
 
     private SlackGroupJoined parseGroupJoined(JSONObject object)
     {
         JSONObject channel = (JSONObject) object.get("channel");
-        SlackChannel slackChannel = SlackJSONParsingUtils.buildSlackChannel(channel, users);
+        SlackChannel slackChannel = SlackJSONParsingUtils.buildSlackChannel(channel, directory().getUsersById());
         return new SlackGroupJoinedImpl(slackChannel);
     }
 
     private JSONObject parseObject(String json)
     {
+        if (json == null)
+        {
+            return null;
+        }
         JSONParser parser = new JSONParser();
         try
         {
             JSONObject object = (JSONObject) parser.parse(json);
             return object;
         }
-        catch (ParseException e)
+        catch (ParseException | ClassCastException e)
         {
-            e.printStackTrace();
+            // payloads can be large and hold message text, only their start is worth a warning
+            LOGGER.warn("unable to parse payload of {} characters starting with {}: {}", json.length(),
+                json.substring(0, Math.min(json.length(), LOGGED_PAYLOAD_PREFIX)), e.toString());
+            LOGGER.debug("unparsable payload: {}", json, e);
             return null;
         }
     }
+
+    // one Web API call, run again by the scheduler when Slack asks to retry it later
+    private final class ApiCall implements Runnable
+    {
+        private final String                 method;
+        private final String                 channelId;
+        private final HttpPost               request;
+        private final SlackMessageHandleImpl handle;
+        private final ApiMetrics             methodMetrics;
+        private int                          attempt;
+
+        private ApiCall(String method, String channelId, HttpPost request, SlackMessageHandleImpl handle)
+        {
+            this.method = method;
+            this.channelId = channelId;
+            this.request = request;
+            this.handle = handle;
+            this.methodMetrics = apiMetrics(method);
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                long startedAt = System.nanoTime();
+                SlackHttpConnectionPool.Response response = httpPool.execute(request);
+                methodMetrics.latency.recordNanos(System.nanoTime() - startedAt);
+                if (response.getStatusCode() == SlackHttpConnectionPool.HTTP_TOO_MANY_REQUESTS)
+                {
+                    methodMetrics.rateLimited.increment();
+                    rateLimiter.onRateLimited(method, channelId, response.getRetryAfterMillis());
+                    if (attempt++ < MAX_RATE_LIMITED_RETRIES)
+                    {
+                        scheduleApiCall(this);
+                        return;
+                    }
+                    LOGGER.error(method + " still rate limited after " + MAX_RATE_LIMITED_RETRIES + " retries, giving up");
+                    fail(new IOException(method + " rate limited by slack"));
+                    return;
+                }
+                rateLimiter.onSuccess(method, channelId);
+                LOGGER.debug("{} return: {}", method, response.getBody());
+                JSONObject object = parseObject(response.getBody());
+                if (object == null)
+                {
+                    LOGGER.error(method + " failed with HTTP status " + response.getStatusCode());
+                    fail(new IOException(method + " failed with HTTP status " + response.getStatusCode()));
+                    return;
+                }
+                SlackReply reply = SlackJSONReplyParser.decode(object);
+                (reply.isOk() ? methodMetrics.sent : methodMetrics.failed).increment();
+                pendingApiCalls.remove(handle);
+                handle.setSlackReply(reply);
+            }
+            catch (Exception e)
+            {
+                LOGGER.error("unable to call " + method, e);
+                fail(e);
+            }
+        }
+
+        private void fail(Throwable cause)
+        {
+            methodMetrics.failed.increment();
+            pendingApiCalls.remove(handle);
+            handle.setFailure(cause);
+        }
+    }
+
+    private static final class ApiMetrics
+    {
+        private final LongAdder             sent;
+        private final LongAdder             failed;
+        private final LongAdder             rateLimited;
+        private final SlackLatencyHistogram latency;
+
+        private ApiMetrics(SlackMetrics metrics, String method)
+        {
+            sent = metrics.counter("api." + method + ".sent");
+            failed = metrics.counter("api." + method + ".failed");
+            rateLimited = metrics.counter("api." + method + ".ratelimited");
+            latency = metrics.histogram("api." + method + ".latency");
+        }
+    }
 }
@@ -0,0 +1,77 @@
+package io.playpen.plugin.slack;
+
+import java.util.regex.Pattern;
+
+/**
+ * A compiled pattern whose matches are aborted once they read too many characters. Backtracking
+ * regex engines can take exponential time on some patterns, which is not acceptable for patterns
+ * typed in a chat channel, so every match runs against a view of the input which counts the
+ * characters the engine reads and throws {@link PatternBudgetExceededException} past the budget.
+ */
+public class BudgetedPattern {
+    private final String source;
+    private final Pattern pattern;
+    private final long stepBudget;
+
+    BudgetedPattern(String source, Pattern pattern, long stepBudget) {
+        this.source = source;
+        this.pattern = pattern;
+        this.stepBudget = stepBudget;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public boolean matches(CharSequence input) {
+        return pattern.matcher(new BudgetedCharSequence(input, 0, input.length(), new Budget(stepBudget))).matches();
+    }
+
+    private class Budget {
+        private long remaining;
+
+        private Budget(long remaining) {
+            this.remaining = remaining;
+        }
+
+        private void spend() {
+            if(--remaining < 0)
+                throw new PatternBudgetExceededException(source, stepBudget);
+        }
+    }
+
+    private static class BudgetedCharSequence implements CharSequence {
+        private final CharSequence input;
+        private final int start;
+        private final int end;
+        private final Budget budget;
+
+        private BudgetedCharSequence(CharSequence input, int start, int end, Budget budget) {
+            this.input = input;
+            this.start = start;
+            this.end = end;
+            this.budget = budget;
+        }
+
+        @Override
+        public int length() {
+            return end - start;
+        }
+
+        @Override
+        public char charAt(int index) {
+            budget.spend();
+            return input.charAt(start + index);
+        }
+
+        @Override
+        public CharSequence subSequence(int subStart, int subEnd) {
+            return new BudgetedCharSequence(input, start + subStart, start + subEnd, budget);
+        }
+
+        @Override
+        public String toString() {
+            return input.subSequence(start, end).toString();
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package io.playpen.plugin.slack;
+
+import lombok.extern.log4j.Log4j2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Runs the same network call against many servers at once, with at most a fixed number of calls
+ * in flight, and sums the outcome up once every server was handled.
+ */
+@Log4j2
+public class BulkOperation {
+    private static final int MAX_LISTED_FAILURES = 10;
+
+    public interface Action {
+        /**
+         * Returns whether the call for that server succeeded.
+         */
+        boolean run(String coordinator, String server) throws Exception;
+    }
+
+    private final ExecutorService executor;
+    private final int parallelism;
+
+    public BulkOperation(ExecutorService executor, int parallelism) {
+        this.executor = executor;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Calls the action for every server, given by coordinator, and waits for all of them. The
+     * progress callback is invoked with the number of servers handled so far, from the threads
+     * running the action.
+     */
+    public Summary execute(Map<String, List<String>> targets, Action action, Consumer<Integer> progress) {
+        List<String> coordinators = new ArrayList<>();
+        List<String> servers = new ArrayList<>();
+        for(Map.Entry<String, List<String>> entry : targets.entrySet()) {
+            for(String server : entry.getValue()) {
+                coordinators.add(entry.getKey());
+                servers.add(server);
+            }
+        }
+
+        int count = servers.size();
+        long[] latencies = new long[count];
+        boolean[] succeeded = new boolean[count];
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger done = new AtomicInteger();
+        long start = System.nanoTime();
+
+        // each worker claims the next server until none is left, which caps the calls in flight
+        int workers = Math.min(parallelism, count);
+        CountDownLatch finished = new CountDownLatch(workers);
+        Runnable worker = () -> {
+            try {
+                int i;
+                while((i = next.getAndIncrement()) < count) {
+                    long callStart = System.nanoTime();
+                    try {
+                        succeeded[i] = action.run(coordinators.get(i), servers.get(i));
+                    }
+                    catch(Exception e) {
+                        log.error("Bulk operation failed for server " + servers.get(i), e);
+                    }
+                    latencies[i] = System.nanoTime() - callStart;
+                    progress.accept(done.incrementAndGet());
+                }
+            }
+            finally {
+                finished.countDown();
+            }
+        };
+
+        for(int i = 0; i < workers; ++i) {
+            try {
+                executor.execute(worker);
+            }
+            catch(RejectedExecutionException e) {
+                // run it here rather than losing a share of the servers
+                worker.run();
+            }
+        }
+
+        try {
+            finished.await();
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // the latch orders the writes of the workers before the reads below
+        List<String> failures = new ArrayList<>();
+        int failureCount = 0;
+        for(int i = 0; i < count; ++i) {
+            if(!succeeded[i]) {
+                failureCount++;
+                if(failures.size() < MAX_LISTED_FAILURES)
+                    failures.add(servers.get(i) + " on " + coordinators.get(i));
+            }
+        }
+
+        Arrays.sort(latencies);
+        return new Summary(count, count - failureCount, failures, System.nanoTime() - start,
+                percentile(latencies, 50), percentile(latencies, 90), percentile(latencies, 99));
+    }
+
+    private static long percentile(long[] sorted, int percentile) {
+        if(sorted.length == 0)
+            return 0;
+
+        int rank = (int) Math.ceil(sorted.length * percentile / 100.0);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    public static class Summary {
+        private final int total;
+        private final int succeeded;
+        private final List<String> failures;
+        private final long elapsedNanos;
+        private final long p50Nanos;
+        private final long p90Nanos;
+        private final long p99Nanos;
+
+        private Summary(int total, int succeeded, List<String> failures, long elapsedNanos, long p50Nanos,
+                        long p90Nanos, long p99Nanos) {
+            this.total = total;
+            this.succeeded = succeeded;
+            this.failures = failures;
+            this.elapsedNanos = elapsedNanos;
+            this.p50Nanos = p50Nanos;
+            this.p90Nanos = p90Nanos;
+            this.p99Nanos = p99Nanos;
+        }
+
+        public int getTotal() {
+            return total;
+        }
+
+        public int getSucceeded() {
+            return succeeded;
+        }
+
+        public int getFailed() {
+            return total - succeeded;
+        }
+
+        /**
+         * Renders the summary, listing the first failed servers.
+         */
+        public String describe(String operation) {
+            StringBuilder builder = new StringBuilder();
+            builder.append(operation).append(" operation complete: ")
+                    .append(succeeded).append('/').append(total).append(" servers succeeded in ")
+                    .append(formatNanos(elapsedNanos))
+                    .append(" (latency p50 ").append(formatNanos(p50Nanos))
+                    .append(", p90 ").append(formatNanos(p90Nanos))
+                    .append(", p99 ").append(formatNanos(p99Nanos)).append(')');
+            if(!failures.isEmpty()) {
+                builder.append("\nFailed: ");
+                for(int i = 0; i < failures.size(); ++i) {
+                    if(i > 0)
+                        builder.append(", ");
+                    builder.append(failures.get(i));
+                }
+
+                if(getFailed() > failures.size())
+                    builder.append(" and ").append(getFailed() - failures.size()).append(" more");
+            }
+            return builder.toString();
+        }
+
+        private static String formatNanos(long nanos) {
+            long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+            return millis < 10000 ? millis + "ms" : TimeUnit.MILLISECONDS.toSeconds(millis) + "s";
+        }
+    }
+}
@@ -0,0 +1,384 @@
+package io.playpen.plugin.slack;
+
+import lombok.Value;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only, memory-mapped log of the messages handed to Slack, so that notifications survive
+ * Slack outages and coordinator restarts. Every message is appended when queued and acknowledged
+ * once delivered; whatever is still unacknowledged when the log is opened is replayed.
+ *
+ * Appends only write to the mapping, the file is forced to disk in batches by a scheduled task.
+ * A crash can therefore lose the last sync interval of acknowledgements and deliver those messages
+ * twice, but an acknowledged message is never replayed once its ack is on disk.
+ *
+ * The log is compacted by a task on the scheduler, started once it is three quarters full, so
+ * appends never wait on the disk. An append finding the log full while compaction runs is not
+ * logged, the caller decides whether to deliver it anyway or wait for the room.
+ */
+@Log4j2
+public class MessageOutbox {
+    private static final int MAGIC = 0x534c4f42;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    // length, crc, type and sequence precede the payload of every record
+    private static final int RECORD_OVERHEAD = 4 + 4 + 1 + 8;
+
+    private static final byte TYPE_END = 0;
+    private static final byte TYPE_APPEND = 1;
+    private static final byte TYPE_ACK = 2;
+
+    /** Returned by append when the message could not be logged. */
+    public static final long NOT_LOGGED = 0;
+
+    private final Path file;
+    private final CRC32 crc = new CRC32();
+    private final ScheduledExecutorService scheduler;
+
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int capacity;
+    private long nextSequence = 1;
+    private volatile boolean dirty = false;
+    private boolean compacting = false;
+    private boolean closed = false;
+    // largest record refused since the last compaction, the next log must fit it
+    private int refusedLength = 0;
+    private long unlogged = 0;
+
+    // unacknowledged messages by sequence, in append order
+    private final Map<Long, String> pending = new LinkedHashMap<>();
+    private ScheduledFuture<?> syncTask = null;
+
+    private MessageOutbox(Path file, int capacity, ScheduledExecutorService scheduler) {
+        this.file = file;
+        this.capacity = capacity;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Opens the log, creating it if needed, and recovers the unacknowledged messages it holds. A
+     * record torn by a crash ends the log, everything after it is discarded.
+     */
+    public static MessageOutbox open(Path file, int initialCapacity, ScheduledExecutorService scheduler, long syncIntervalMillis) throws IOException {
+        MessageOutbox outbox = new MessageOutbox(file, Math.max(initialCapacity, HEADER_SIZE + RECORD_OVERHEAD), scheduler);
+        if(Files.exists(file))
+            outbox.recover();
+
+        // rewriting on open drops acknowledged entries and anything past a torn record
+        outbox.compact();
+        outbox.syncTask = scheduler.scheduleWithFixedDelay(outbox::sync, syncIntervalMillis, syncIntervalMillis,
+                TimeUnit.MILLISECONDS);
+        return outbox;
+    }
+
+    private void recover() throws IOException {
+        try(FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = in.size();
+            if(size < HEADER_SIZE)
+                return;
+
+            capacity = (int) Math.max(capacity, size);
+            MappedByteBuffer records = in.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if(records.getInt() != MAGIC || records.getInt() != VERSION)
+                throw new IOException(file + " is not a slack outbox");
+
+            byte[] payload = new byte[256];
+            try {
+                while(records.remaining() >= RECORD_OVERHEAD) {
+                    int length = records.getInt();
+                    int checksum = records.getInt();
+                    byte type = records.get();
+                    long sequence = records.getLong();
+                    if(type == TYPE_END || length < 0 || length > records.remaining())
+                        break;
+
+                    if(payload.length < length)
+                        payload = new byte[Math.max(length, payload.length * 2)];
+                    records.get(payload, 0, length);
+                    if(checksum(crc, type, sequence, payload, length) != checksum) {
+                        log.warn("Outbox " + file + " has a torn record, ignoring everything after it");
+                        break;
+                    }
+
+                    if(type == TYPE_APPEND)
+                        pending.put(sequence, new String(payload, 0, length, StandardCharsets.UTF_8));
+                    else if(type == TYPE_ACK)
+                        pending.remove(sequence);
+
+                    nextSequence = Math.max(nextSequence, sequence + 1);
+                }
+            }
+            catch(BufferUnderflowException e) {
+                // truncated tail, same as a torn record
+            }
+        }
+    }
+
+    /**
+     * Logs a message and returns the sequence to acknowledge it with, or {@link #NOT_LOGGED} if the
+     * log is full. Unless told to wait for compaction to make room, a full log is not waited on.
+     */
+    public synchronized long append(String text, boolean waitForRoom) {
+        byte[] payload = text.getBytes(StandardCharsets.UTF_8);
+        while(!hasRoom(payload.length)) {
+            refusedLength = Math.max(refusedLength, payload.length);
+            scheduleCompaction();
+            if(!waitForRoom || !compacting) {
+                unlogged++;
+                return NOT_LOGGED;
+            }
+
+            try {
+                wait();
+            }
+            catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                unlogged++;
+                return NOT_LOGGED;
+            }
+        }
+
+        long sequence = nextSequence++;
+        write(buffer, crc, TYPE_APPEND, sequence, payload);
+        pending.put(sequence, text);
+        if(buffer.remaining() < capacity / 4)
+            scheduleCompaction();
+        return sequence;
+    }
+
+    /**
+     * Marks a message as delivered, or abandoned, so it is not replayed. If the log is full the
+     * ack is not written, the message is left out of the compacted log anyway.
+     */
+    public synchronized void acknowledge(long sequence) {
+        if(pending.remove(sequence) == null)
+            return;
+
+        if(hasRoom(0))
+            write(buffer, crc, TYPE_ACK, sequence, null);
+        else
+            scheduleCompaction();
+
+        // once everything is delivered, a log past half its size is cheap to start over
+        if(pending.isEmpty() && buffer.position() > capacity / 2)
+            scheduleCompaction();
+    }
+
+    /**
+     * Returns the messages not acknowledged yet, oldest first.
+     */
+    public synchronized List<Entry> getPending() {
+        List<Entry> entries = new ArrayList<>(pending.size());
+        for(Map.Entry<Long, String> entry : pending.entrySet()) {
+            entries.add(new Entry(entry.getKey(), entry.getValue()));
+        }
+        return entries;
+    }
+
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    public synchronized int getSize() {
+        return buffer.position();
+    }
+
+    // messages handed over while the log was full, delivered without being logged
+    public synchronized long getUnloggedCount() {
+        return unlogged;
+    }
+
+    /**
+     * Forces pending writes to disk. Runs outside the lock so appends never wait on the disk.
+     */
+    public void sync() {
+        if(!dirty)
+            return;
+
+        MappedByteBuffer current;
+        synchronized(this) {
+            dirty = false;
+            current = buffer;
+        }
+        current.force();
+    }
+
+    public void close() {
+        if(syncTask != null)
+            syncTask.cancel(false);
+
+        synchronized(this) {
+            closed = true;
+            notifyAll();
+            buffer.force();
+            try {
+                channel.close();
+            }
+            catch(IOException e) {
+                log.warn("Unable to close outbox " + file, e);
+            }
+        }
+    }
+
+    private boolean hasRoom(int payloadLength) {
+        // keep room for the end marker so recovery always finds where the log stops
+        return buffer.remaining() >= RECORD_OVERHEAD + payloadLength + RECORD_OVERHEAD;
+    }
+
+    private void scheduleCompaction() {
+        if(compacting || closed)
+            return;
+
+        compacting = true;
+        try {
+            scheduler.execute(this::runCompaction);
+        }
+        catch(RejectedExecutionException e) {
+            compacting = false;
+        }
+    }
+
+    private void runCompaction() {
+        try {
+            compact();
+        }
+        catch(IOException e) {
+            log.error("Unable to compact outbox " + file, e);
+        }
+        finally {
+            synchronized(this) {
+                compacting = false;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Writes the unacknowledged messages to a fresh log next to the current one and swaps it in,
+     * so a crash at any point leaves one complete log behind. The log is written and forced to disk
+     * without holding the lock; what was appended or acknowledged meanwhile is then caught up with
+     * before the swap.
+     */
+    private void compact() throws IOException {
+        List<Entry> snapshot;
+        int newCapacity;
+        synchronized(this) {
+            if(closed)
+                return;
+
+            snapshot = getPending();
+            // records may still be appended to the current log until the swap, the new one takes them too
+            int live = HEADER_SIZE + refusedLength + RECORD_OVERHEAD * 2 + (buffer == null ? 0 : buffer.remaining());
+            for(Entry entry : snapshot) {
+                live += RECORD_OVERHEAD * 2 + entry.getText().length() * 3;
+            }
+
+            newCapacity = capacity;
+            while(newCapacity < live * 2) {
+                newCapacity *= 2;
+            }
+            refusedLength = 0;
+        }
+
+        Path compacted = file.resolveSibling(file.getFileName() + ".compact");
+        FileChannel newChannel = FileChannel.open(compacted, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            CRC32 compactCrc = new CRC32();
+            MappedByteBuffer newBuffer = newChannel.map(FileChannel.MapMode.READ_WRITE, 0, newCapacity);
+            newBuffer.putInt(MAGIC);
+            newBuffer.putInt(VERSION);
+            Set<Long> copied = new HashSet<>();
+            for(Entry entry : snapshot) {
+                write(newBuffer, compactCrc, TYPE_APPEND, entry.getSequence(), entry.getText().getBytes(StandardCharsets.UTF_8));
+                copied.add(entry.getSequence());
+            }
+            newBuffer.force();
+
+            FileChannel previousChannel;
+            synchronized(this) {
+                if(closed) {
+                    newChannel.close();
+                    Files.deleteIfExists(compacted);
+                    return;
+                }
+
+                for(Entry entry : snapshot) {
+                    if(!pending.containsKey(entry.getSequence()))
+                        write(newBuffer, compactCrc, TYPE_ACK, entry.getSequence(), null);
+                }
+                for(Map.Entry<Long, String> entry : pending.entrySet()) {
+                    if(!copied.contains(entry.getKey()))
+                        write(newBuffer, compactCrc, TYPE_APPEND, entry.getKey(), entry.getValue().getBytes(StandardCharsets.UTF_8));
+                }
+
+                Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                previousChannel = channel;
+                channel = newChannel;
+                buffer = newBuffer;
+                capacity = newCapacity;
+                // the records caught up with are left to the sync task
+                dirty = true;
+            }
+
+            if(previousChannel != null)
+                previousChannel.close();
+        }
+        catch(IOException e) {
+            newChannel.close();
+            Files.deleteIfExists(compacted);
+            throw e;
+        }
+    }
+
+    private void write(MappedByteBuffer target, CRC32 crc, byte type, long sequence, byte[] payload) {
+        int length = payload == null ? 0 : payload.length;
+        target.putInt(length);
+        target.putInt(checksum(crc, type, sequence, payload, length));
+        target.put(type);
+        target.putLong(sequence);
+        if(payload != null)
+            target.put(payload);
+        dirty = true;
+    }
+
+    private static int checksum(CRC32 crc, byte type, long sequence, byte[] payload, int length) {
+        crc.reset();
+        crc.update(type);
+        for(int shift = 56; shift >= 0; shift -= 8) {
+            crc.update((int) (sequence >>> shift));
+        }
+        if(payload != null)
+            crc.update(payload, 0, length);
+        return (int) crc.getValue();
+    }
+
+    @Value
+    public static class Entry {
+        private long sequence;
+        private String text;
+    }
+}
@@ -0,0 +1,189 @@
+package io.playpen.plugin.slack;
+
+import com.google.common.base.Joiner;
+import lombok.Value;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Aggregates high-rate network events over a short window and emits one summary message per event
+ * type, coordinator and package instead of one message per server.
+ */
+public class NotificationDigest {
+    private static final int MAX_LISTED_NAMES = 10;
+
+    private enum EventType {
+        PROVISION_REQUEST,
+        PROVISION_RESPONSE,
+        DEPROVISION_REQUEST,
+        SERVER_SHUTDOWN
+    }
+
+    private final Consumer<String> output;
+    private final ScheduledExecutorService scheduler;
+    private final long windowMillis;
+
+    private final Map<DigestKey, Bucket> buckets = new LinkedHashMap<>();
+    private ScheduledFuture<?> pendingFlush = null;
+
+    public NotificationDigest(Consumer<String> output, ScheduledExecutorService scheduler, long windowMillis) {
+        this.output = output;
+        this.scheduler = scheduler;
+        this.windowMillis = windowMillis;
+    }
+
+    public void provisionRequested(String coordinator, String packageId, String packageVersion, String server) {
+        record(new DigestKey(EventType.PROVISION_REQUEST, coordinator, packageId, packageVersion), server, true);
+    }
+
+    public void provisionResponded(String coordinator, String packageId, String packageVersion, String server, boolean success) {
+        record(new DigestKey(EventType.PROVISION_RESPONSE, coordinator, packageId, packageVersion), server, success);
+    }
+
+    public void deprovisionRequested(String coordinator, String server) {
+        record(new DigestKey(EventType.DEPROVISION_REQUEST, coordinator, null, null), server, true);
+    }
+
+    public void serverShutdown(String coordinator, String server) {
+        record(new DigestKey(EventType.SERVER_SHUTDOWN, coordinator, null, null), server, true);
+    }
+
+    /**
+     * Flushes everything pending and then sends the message, bypassing the window. Used for
+     * high-severity events that must not be delayed.
+     */
+    public void urgent(String message) {
+        flush();
+        output.accept(message);
+    }
+
+    /**
+     * Emits a digest for every pending bucket.
+     */
+    public void flush() {
+        List<String> messages = new ArrayList<>();
+        synchronized(this) {
+            if(pendingFlush != null) {
+                pendingFlush.cancel(false);
+                pendingFlush = null;
+            }
+
+            for(Map.Entry<DigestKey, Bucket> entry : buckets.entrySet()) {
+                messages.add(render(entry.getKey(), entry.getValue()));
+            }
+            buckets.clear();
+        }
+
+        for(String message : messages) {
+            output.accept(message);
+        }
+    }
+
+    private void record(DigestKey key, String server, boolean success) {
+        if(windowMillis <= 0) {
+            Bucket bucket = new Bucket();
+            bucket.add(server, success);
+            output.accept(render(key, bucket));
+            return;
+        }
+
+        synchronized(this) {
+            buckets.computeIfAbsent(key, k -> new Bucket()).add(server, success);
+            if(pendingFlush == null)
+                pendingFlush = scheduler.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static String render(DigestKey key, Bucket bucket) {
+        String pkg = key.packageId + " (" + key.packageVersion + ")";
+        if(bucket.count() == 1) {
+            String server = bucket.succeeded.isEmpty() ? bucket.failed.get(0) : bucket.succeeded.get(0);
+            switch(key.type) {
+                case PROVISION_REQUEST:
+                    return "Provisioning " + pkg + " on coordinator " + key.coordinator + " as server " + server;
+
+                case PROVISION_RESPONSE:
+                    return server + (bucket.failed.isEmpty() ? " has been provisioned" : " failed provisioning");
+
+                case DEPROVISION_REQUEST:
+                    return "Deprovisioning server " + server;
+
+                case SERVER_SHUTDOWN:
+                    return "Server " + server + " has shut down";
+            }
+        }
+
+        switch(key.type) {
+            case PROVISION_REQUEST:
+                return "Provisioning " + bucket.count() + " servers of " + pkg + " on coordinator " + key.coordinator +
+                        ": " + listNames(bucket.succeeded, bucket.succeededCount);
+
+            case PROVISION_RESPONSE:
+                if(bucket.succeededCount == 0) {
+                    return bucket.failedCount + " servers of " + pkg + " failed provisioning on coordinator " +
+                            key.coordinator + ": " + listNames(bucket.failed, bucket.failedCount);
+                }
+
+                String result = "Provisioned " + bucket.succeededCount + " servers of " + pkg + " on coordinator " +
+                        key.coordinator;
+                if(bucket.failedCount > 0)
+                    result += " (" + bucket.failedCount + " failed: " + listNames(bucket.failed, bucket.failedCount) + ")";
+                return result;
+
+            case DEPROVISION_REQUEST:
+                return "Deprovisioning " + bucket.count() + " servers on coordinator " + key.coordinator + ": " +
+                        listNames(bucket.succeeded, bucket.succeededCount);
+
+            case SERVER_SHUTDOWN:
+            default:
+                return bucket.count() + " servers have shut down on coordinator " + key.coordinator + ": " +
+                        listNames(bucket.succeeded, bucket.succeededCount);
+        }
+    }
+
+    private static String listNames(List<String> names, int total) {
+        String result = Joiner.on(", ").useForNull("?").join(names);
+        if(total > names.size())
+            result += " and " + (total - names.size()) + " more";
+        return result;
+    }
+
+    @Value
+    private static class DigestKey {
+        EventType type;
+        String coordinator;
+        String packageId;
+        String packageVersion;
+    }
+
+    private static class Bucket {
+        private final List<String> succeeded = new ArrayList<>();
+        private final List<String> failed = new ArrayList<>();
+        private int succeededCount = 0;
+        private int failedCount = 0;
+
+        private void add(String server, boolean success) {
+            if(success) {
+                if(succeeded.size() < MAX_LISTED_NAMES)
+                    succeeded.add(server);
+                succeededCount++;
+            }
+            else {
+                if(failed.size() < MAX_LISTED_NAMES)
+                    failed.add(server);
+                failedCount++;
+            }
+        }
+
+        private int count() {
+            return succeededCount + failedCount;
+        }
+    }
+}
@@ -0,0 +1,422 @@
+package io.playpen.plugin.slack;
+
+import com.ullink.slack.simpleslackapi.SlackChannel;
+import com.ullink.slack.simpleslackapi.SlackMessageHandle;
+import com.ullink.slack.simpleslackapi.SlackReply;
+import com.ullink.slack.simpleslackapi.SlackSession;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded queue of outgoing chat messages drained by dedicated sender threads, so that network
+ * callbacks never wait on the Slack API. When an outbox is given, messages are logged to it when
+ * queued and acknowledged once Slack answered, and failed deliveries are retried until then.
+ */
+@Log4j2
+public class OutboundMessageQueue {
+    public enum OverflowPolicy {
+        /** Discard the oldest queued message to make room. */
+        DROP_OLDEST,
+
+        /** Append to the newest queued message if it stays small enough, otherwise drop the oldest. */
+        COALESCE,
+
+        /** Wait for a sender to make room. */
+        BLOCK
+    }
+
+    private static final int MAX_COALESCED_LENGTH = 3000;
+    private static final long INITIAL_RETRY_MILLIS = 1000;
+    private static final long MAX_RETRY_MILLIS = 60000;
+    private static final long[] NO_SEQUENCES = new long[0];
+
+    private final SlackSession session;
+    private final SlackChannel channel;
+    private final int capacity;
+    private final OverflowPolicy overflowPolicy;
+    private final MessageOutbox outbox;
+
+    private final ArrayDeque<OutboundMessage> queue;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Condition settledChanged = lock.newCondition();
+    private final List<Thread> workers = new ArrayList<>();
+    private volatile boolean running = false;
+
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private int highWaterMark = 0;
+
+    // messages accepted, and those delivered, rejected or dropped since, coalesced ones counting apart
+    private long accepted = 0;
+    private long settled = 0;
+
+    public OutboundMessageQueue(SlackSession session, SlackChannel channel, int capacity, OverflowPolicy overflowPolicy) {
+        this(session, channel, capacity, overflowPolicy, null);
+    }
+
+    public OutboundMessageQueue(SlackSession session, SlackChannel channel, int capacity, OverflowPolicy overflowPolicy,
+                                MessageOutbox outbox) {
+        this.session = session;
+        this.channel = channel;
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+        this.outbox = outbox;
+        this.queue = new ArrayDeque<>(capacity);
+    }
+
+    /**
+     * Queues messages left undelivered by a previous run, ahead of anything new. They were accepted
+     * once already, so the capacity is not enforced for them.
+     */
+    public void restore(List<MessageOutbox.Entry> entries) {
+        lock.lock();
+        try {
+            for(MessageOutbox.Entry entry : entries) {
+                queue.offerLast(new OutboundMessage(entry.getText(), new long[] { entry.getSequence() }));
+            }
+            accepted += entries.size();
+            if(queue.size() > highWaterMark)
+                highWaterMark = queue.size();
+            notEmpty.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Starts the sender threads. Messages are delivered in order only when a single worker is used.
+     */
+    public void start(int workerCount) {
+        running = true;
+        for(int i = 0; i < workerCount; ++i) {
+            Thread worker = new Thread(this::runWorker, "slack-sender-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    /**
+     * Gives the workers up to the specified time to drain the queue, then stops them.
+     */
+    public void stop(long timeout, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        lock.lock();
+        try {
+            while(!queue.isEmpty()) {
+                long remaining = deadline - System.nanoTime();
+                if(remaining <= 0)
+                    break;
+
+                notFull.awaitNanos(remaining);
+            }
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            running = false;
+            notEmpty.signalAll();
+            notFull.signalAll();
+            lock.unlock();
+        }
+
+        for(Thread worker : workers) {
+            worker.interrupt();
+        }
+        workers.clear();
+    }
+
+    /**
+     * Waits until every message accepted so far was delivered, rejected by Slack or dropped, so that
+     * a message sent to Slack directly afterwards shows up after them. Returns false if the timeout
+     * elapsed first.
+     */
+    public boolean awaitDelivery(long timeout, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        lock.lock();
+        try {
+            long target = accepted;
+            while(settled < target) {
+                long remaining = deadline - System.nanoTime();
+                if(remaining <= 0)
+                    return false;
+
+                settledChanged.awaitNanos(remaining);
+            }
+            return true;
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queues a message for delivery. Returns false if the message (or an older one) had to be
+     * dropped to respect the queue capacity.
+     */
+    public boolean offer(String text) {
+        // while the outbox compacts a full log, only the blocking policy waits for it, the others
+        // deliver the message without logging it
+        long sequence = outbox == null ? MessageOutbox.NOT_LOGGED : outbox.append(text, overflowPolicy == OverflowPolicy.BLOCK);
+        long[] sequences = sequence == MessageOutbox.NOT_LOGGED ? NO_SEQUENCES : new long[] { sequence };
+        lock.lock();
+        try {
+            enqueued.incrementAndGet();
+            accepted++;
+            boolean droppedAny = false;
+            if(queue.size() >= capacity) {
+                switch(overflowPolicy) {
+                    case COALESCE:
+                        OutboundMessage last = queue.peekLast();
+                        if(last != null && last.text.length() + text.length() + 1 <= MAX_COALESCED_LENGTH) {
+                            last.text = last.text + '\n' + text;
+                            last.append(sequences);
+                            last.offers++;
+                            coalesced.incrementAndGet();
+                            return true;
+                        }
+                        // fall through when the tail message is already too large
+
+                    case DROP_OLDEST:
+                        OutboundMessage oldest = queue.pollFirst();
+                        acknowledge(oldest);
+                        settleLocked(oldest.offers);
+                        dropped.incrementAndGet();
+                        droppedAny = true;
+                        break;
+
+                    case BLOCK:
+                        while(queue.size() >= capacity && running) {
+                            notFull.await();
+                        }
+                        break;
+                }
+            }
+
+            if(!running && queue.size() >= capacity) {
+                acknowledge(sequences);
+                settleLocked(1);
+                dropped.incrementAndGet();
+                return false;
+            }
+
+            queue.offerLast(new OutboundMessage(text, sequences));
+            if(queue.size() > highWaterMark)
+                highWaterMark = queue.size();
+            notEmpty.signal();
+            return !droppedAny;
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            acknowledge(sequences);
+            settleLocked(1);
+            dropped.incrementAndGet();
+            return false;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private OutboundMessage take() throws InterruptedException {
+        lock.lock();
+        try {
+            while(queue.isEmpty()) {
+                if(!running)
+                    return null;
+
+                notEmpty.await();
+            }
+
+            OutboundMessage message = queue.pollFirst();
+            notFull.signalAll();
+            return message;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private void runWorker() {
+        while(true) {
+            OutboundMessage message;
+            try {
+                message = take();
+            }
+            catch(InterruptedException e) {
+                break;
+            }
+
+            if(message == null)
+                break;
+
+            deliver(message);
+        }
+    }
+
+    /**
+     * Sends the message, retrying with a growing delay while Slack cannot be reached. A message
+     * Slack answered is acknowledged even when rejected, retrying it would not change the answer.
+     * Messages still unsent when the queue stops stay in the outbox for the next run.
+     */
+    private void deliver(OutboundMessage message) {
+        long retryDelay = INITIAL_RETRY_MILLIS;
+        while(true) {
+            SlackReply reply = null;
+            try {
+                SlackMessageHandle handle = session.sendMessage(channel, message.text, null, "playpen", null);
+                reply = handle.getReplyFuture().join();
+            }
+            catch(Exception e) {
+                log.error("Unable to send message to slack", e);
+            }
+
+            if(reply != null) {
+                if(reply.isOk()) {
+                    sent.incrementAndGet();
+                }
+                else {
+                    failed.incrementAndGet();
+                    log.warn("Slack did not accept message: " + message.text);
+                }
+                acknowledge(message);
+                settle(message.offers);
+                return;
+            }
+
+            if(!running)
+                return;
+
+            retried.incrementAndGet();
+            log.warn("Slack unreachable, retrying message in " + retryDelay + "ms");
+            try {
+                Thread.sleep(retryDelay);
+            }
+            catch(InterruptedException e) {
+                return;
+            }
+            retryDelay = Math.min(retryDelay * 2, MAX_RETRY_MILLIS);
+        }
+    }
+
+    private void settle(int offers) {
+        lock.lock();
+        try {
+            settleLocked(offers);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private void settleLocked(int offers) {
+        settled += offers;
+        settledChanged.signalAll();
+    }
+
+    private void acknowledge(OutboundMessage message) {
+        if(message != null)
+            acknowledge(message.sequences);
+    }
+
+    private void acknowledge(long[] sequences) {
+        if(outbox == null)
+            return;
+
+        for(long sequence : sequences) {
+            outbox.acknowledge(sequence);
+        }
+    }
+
+    public int getDepth() {
+        lock.lock();
+        try {
+            return queue.size();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public int getHighWaterMark() {
+        lock.lock();
+        try {
+            return highWaterMark;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getEnqueued() {
+        return enqueued.get();
+    }
+
+    public long getSent() {
+        return sent.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    public long getRetried() {
+        return retried.get();
+    }
+
+    private static class OutboundMessage {
+        private String text;
+
+        // outbox entries this message delivers, several once coalesced
+        private long[] sequences;
+
+        // messages offered to the queue this one delivers
+        private int offers = 1;
+
+        private OutboundMessage(String text, long[] sequences) {
+            this.text = text;
+            this.sequences = sequences;
+        }
+
+        private void append(long[] more) {
+            if(more.length == 0)
+                return;
+
+            long[] merged = Arrays.copyOf(sequences, sequences.length + more.length);
+            System.arraycopy(more, 0, merged, sequences.length, more.length);
+            sequences = merged;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package io.playpen.plugin.slack;
+
+/**
+ * Thrown when matching a chat supplied pattern reads more characters than its budget allows,
+ * which is what a catastrophically backtracking pattern does.
+ */
+public class PatternBudgetExceededException extends RuntimeException {
+    private final String pattern;
+
+    public PatternBudgetExceededException(String pattern, long stepBudget) {
+        super("Matching '" + pattern + "' took more than " + stepBudget + " steps");
+        this.pattern = pattern;
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+}
@@ -0,0 +1,43 @@
+package io.playpen.plugin.slack;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Least recently used cache of the anchored patterns compiled from chat commands, so that the
+ * same pattern typed again is not compiled again.
+ */
+public class PatternCache {
+    private final long stepBudget;
+    private final Map<String, BudgetedPattern> patterns;
+
+    public PatternCache(final int capacity, long stepBudget) {
+        this.stepBudget = stepBudget;
+        this.patterns = new LinkedHashMap<String, BudgetedPattern>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, BudgetedPattern> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the pattern anchored with ^ and $. Throws
+     * {@link java.util.regex.PatternSyntaxException} if it is not a valid regex.
+     */
+    public BudgetedPattern get(String source) {
+        synchronized(patterns) {
+            BudgetedPattern pattern = patterns.get(source);
+            if(pattern != null)
+                return pattern;
+        }
+
+        // compiled outside the lock, two threads compiling the same pattern is harmless
+        BudgetedPattern pattern = new BudgetedPattern(source, Pattern.compile('^' + source + '$'), stepBudget);
+        synchronized(patterns) {
+            patterns.put(source, pattern);
+        }
+        return pattern;
+    }
+}
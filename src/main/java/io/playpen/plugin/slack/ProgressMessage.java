@@ -0,0 +1,151 @@
+package io.playpen.plugin.slack;
+
+import com.ullink.slack.simpleslackapi.SlackChannel;
+import com.ullink.slack.simpleslackapi.SlackMessageHandle;
+import com.ullink.slack.simpleslackapi.SlackReply;
+import com.ullink.slack.simpleslackapi.SlackSession;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * A single chat message reporting the progress of a long running command, edited in place as the
+ * work proceeds. Updates are throttled: only the latest text is sent, at most once per interval.
+ * If the message cannot be posted, intermediate updates are dropped and the final text is sent as
+ * a regular message instead. The scheduler only times the updates, which are sent from the
+ * executor since sending blocks on rate limiting and on Slack.
+ */
+@Log4j2
+public class ProgressMessage {
+    private final SlackSession session;
+    private final SlackChannel channel;
+    private final ScheduledExecutorService scheduler;
+    private final Executor sender;
+    private final long minIntervalMillis;
+    private final Consumer<String> fallback;
+    private final Object sendLock = new Object();
+
+    private String timestamp = null;
+    private String latest;
+    private String lastSent;
+    private boolean flushScheduled = false;
+    private boolean completed = false;
+    private long lastSentAt = 0;
+
+    private ProgressMessage(SlackSession session, SlackChannel channel, ScheduledExecutorService scheduler,
+                            Executor sender, long minIntervalMillis, Consumer<String> fallback) {
+        this.session = session;
+        this.channel = channel;
+        this.scheduler = scheduler;
+        this.sender = sender;
+        this.minIntervalMillis = minIntervalMillis;
+        this.fallback = fallback;
+    }
+
+    /**
+     * Posts the message. This waits for Slack to answer, the timestamp of the message is needed to
+     * edit it later on.
+     */
+    public static ProgressMessage start(SlackSession session, SlackChannel channel, ScheduledExecutorService scheduler,
+                                        Executor sender, long minIntervalMillis, Consumer<String> fallback,
+                                        String text) {
+        ProgressMessage message = new ProgressMessage(session, channel, scheduler, sender, minIntervalMillis,
+                fallback);
+        message.post(text);
+        return message;
+    }
+
+    private void post(String text) {
+        latest = text;
+        try {
+            SlackMessageHandle handle = session.sendMessage(channel, text, null, "playpen", null);
+            SlackReply reply = handle.getReplyFuture().join();
+            if(reply != null && reply.isOk() && reply.getTimestamp() != null) {
+                timestamp = reply.getTimestamp();
+                lastSent = text;
+                lastSentAt = System.nanoTime();
+                return;
+            }
+        }
+        catch(Exception e) {
+            log.error("Unable to post progress message", e);
+        }
+        log.warn("Progress message could not be posted, only the final result will be sent");
+    }
+
+    /**
+     * Replaces the text of the message, sent right away or at the end of the current interval.
+     */
+    public synchronized void update(String text) {
+        if(completed)
+            return;
+
+        latest = text;
+        if(timestamp == null || flushScheduled)
+            return;
+
+        long wait = minIntervalMillis - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastSentAt);
+        flushScheduled = true;
+        scheduler.schedule(this::scheduleFlush, Math.max(0, wait), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sets the final text of the message. Later updates are ignored.
+     */
+    public void complete(String text) {
+        synchronized(this) {
+            if(completed)
+                return;
+
+            completed = true;
+            latest = text;
+        }
+
+        if(timestamp == null) {
+            fallback.accept(text);
+            return;
+        }
+        flush();
+    }
+
+    private void scheduleFlush() {
+        try {
+            sender.execute(this::flush);
+        }
+        catch(RejectedExecutionException e) {
+            // the plugin is stopping, the final text is sent from complete() anyway
+            synchronized(this) {
+                flushScheduled = false;
+            }
+        }
+    }
+
+    private void flush() {
+        // sends are serialized, and each one picks the latest text once it is its turn
+        synchronized(sendLock) {
+            String text;
+            synchronized(this) {
+                flushScheduled = false;
+                if(latest.equals(lastSent))
+                    return;
+
+                text = latest;
+                lastSent = text;
+                lastSentAt = System.nanoTime();
+            }
+
+            try {
+                SlackReply reply = session.updateMessage(timestamp, channel, text).getReplyFuture().join();
+                if(reply == null || !reply.isOk())
+                    log.warn("Slack did not accept update of progress message");
+            }
+            catch(Exception e) {
+                log.error("Unable to update progress message", e);
+            }
+        }
+    }
+}
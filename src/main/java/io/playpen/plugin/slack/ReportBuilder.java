@@ -0,0 +1,90 @@
+package io.playpen.plugin.slack;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Accumulates the text of a command answer in a builder reused from one command to the next, and
+ * cuts it into messages small enough for Slack. Chunks end at line boundaries whenever possible.
+ */
+public class ReportBuilder {
+    // past this size the builder is dropped after use rather than kept around
+    private static final int MAX_RETAINED_CAPACITY = 256 * 1024;
+
+    private StringBuilder builder = new StringBuilder(4096);
+
+    /**
+     * Empties the report so it can be written again.
+     */
+    public ReportBuilder reset() {
+        if(builder.capacity() > MAX_RETAINED_CAPACITY)
+            builder = new StringBuilder(4096);
+        else
+            builder.setLength(0);
+        return this;
+    }
+
+    public ReportBuilder append(String text) {
+        builder.append(text);
+        return this;
+    }
+
+    public ReportBuilder append(char c) {
+        builder.append(c);
+        return this;
+    }
+
+    public ReportBuilder append(int value) {
+        builder.append(value);
+        return this;
+    }
+
+    public ReportBuilder append(long value) {
+        builder.append(value);
+        return this;
+    }
+
+    public ReportBuilder append(Object value) {
+        builder.append(value);
+        return this;
+    }
+
+    public int length() {
+        return builder.length();
+    }
+
+    public boolean isEmpty() {
+        return builder.length() == 0;
+    }
+
+    /**
+     * Splits the report in chunks of at most the given length, in a single pass. A chunk ends on
+     * the last line break that fits; a line longer than a chunk is cut where it must.
+     */
+    public List<String> chunks(int maxLength) {
+        List<String> chunks = new ArrayList<>();
+        int length = builder.length();
+        int start = 0;
+        while(length - start > maxLength) {
+            int end = start + maxLength;
+            // only look back within the chunk, so that each character is scanned at most once
+            int lineEnd = end - 1;
+            while(lineEnd >= start && builder.charAt(lineEnd) != '\n')
+                --lineEnd;
+            if(lineEnd >= start)
+                end = lineEnd + 1;
+
+            chunks.add(builder.substring(start, end));
+            start = end;
+        }
+
+        if(start < length)
+            chunks.add(builder.substring(start, length));
+        return chunks;
+    }
+
+    @Override
+    public String toString() {
+        return builder.toString();
+    }
+}
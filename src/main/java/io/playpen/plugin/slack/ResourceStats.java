@@ -0,0 +1,318 @@
+package io.playpen.plugin.slack;
+
+import io.playpen.core.coordinator.network.LocalCoordinator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Resource counters of every coordinator and of the whole network, kept up to date from network
+ * events so that the stats command does not have to walk the coordinators. Resource names are
+ * interned to an index into primitive arrays, and totals are adjusted by the difference each time
+ * a coordinator is refreshed. Totals are also sampled at a fixed interval into a ring buffer from
+ * which the utilization over the last minute, five minutes and hour is averaged.
+ *
+ * A coordinator can disconnect or be disabled without any server event, so the coordinators are
+ * reconciled with the live ones before every sample and report.
+ */
+public class ResourceStats {
+    private static final long[] TREND_WINDOWS_MILLIS = {
+            TimeUnit.MINUTES.toMillis(1), TimeUnit.MINUTES.toMillis(5), TimeUnit.HOURS.toMillis(1) };
+    private static final String[] TREND_WINDOW_NAMES = { "1m", "5m", "1h" };
+
+    // marks a resource a coordinator does not have, or whose usage it does not report
+    private static final int ABSENT = -1;
+
+    private final Map<String, Integer> resourceIndex = new HashMap<>();
+    private final List<String> resourceNames = new ArrayList<>();
+
+    // coordinators in the order they were first seen
+    private final Map<String, CoordinatorStats> coordinators = new LinkedHashMap<>();
+
+    // network totals by resource index, and how many coordinators contribute to each
+    private long[] total = new long[0];
+    private long[] used = new long[0];
+    private int[] totalCount = new int[0];
+    private int[] usedCount = new int[0];
+
+    private final long sampleIntervalMillis;
+    private final long[] sampleTimes;
+    private final long[][] sampleTotal;
+    private final long[][] sampleUsed;
+    private int sampleNext = 0;
+    private int sampleCount = 0;
+    private ScheduledFuture<?> sampler = null;
+
+    public ResourceStats(long sampleIntervalMillis) {
+        this.sampleIntervalMillis = Math.max(1, sampleIntervalMillis);
+        int capacity = (int) Math.min(Integer.MAX_VALUE - 1,
+                TREND_WINDOWS_MILLIS[TREND_WINDOWS_MILLIS.length - 1] / this.sampleIntervalMillis) + 1;
+        sampleTimes = new long[capacity];
+        sampleTotal = new long[capacity][];
+        sampleUsed = new long[capacity][];
+    }
+
+    /**
+     * Starts sampling the totals for the trends, reconciling with the live coordinators first.
+     */
+    public synchronized void start(ScheduledExecutorService scheduler,
+                                   Supplier<Map<String, LocalCoordinator>> liveCoordinators) {
+        if(sampler == null) {
+            sampler = scheduler.scheduleAtFixedRate(() -> {
+                reconcile(liveCoordinators.get());
+                sample();
+            }, sampleIntervalMillis, sampleIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public synchronized void stop() {
+        if(sampler != null) {
+            sampler.cancel(false);
+            sampler = null;
+        }
+    }
+
+    /**
+     * Replaces everything known about the coordinators.
+     */
+    public synchronized void rebuild(Collection<LocalCoordinator> localCoordinators) {
+        coordinators.clear();
+        Arrays.fill(total, 0);
+        Arrays.fill(used, 0);
+        Arrays.fill(totalCount, 0);
+        Arrays.fill(usedCount, 0);
+        for(LocalCoordinator coord : localCoordinators) {
+            refreshLocked(coord);
+        }
+    }
+
+    /**
+     * Reads the resources of a single coordinator again and adjusts the totals by the difference.
+     * Called whenever a server of that coordinator comes or goes.
+     */
+    public synchronized void refresh(LocalCoordinator coord) {
+        refreshLocked(coord);
+    }
+
+    /**
+     * Drops the coordinators which are gone and reads again those whose enabled state changed or
+     * which were never seen. Only looks at the resources of the coordinators which changed.
+     */
+    public synchronized void reconcile(Map<String, LocalCoordinator> liveCoordinators) {
+        Iterator<Map.Entry<String, CoordinatorStats>> known = coordinators.entrySet().iterator();
+        while(known.hasNext()) {
+            Map.Entry<String, CoordinatorStats> entry = known.next();
+            if(!liveCoordinators.containsKey(entry.getKey())) {
+                if(entry.getValue().enabled)
+                    contributeLocked(entry.getValue(), -1);
+                known.remove();
+            }
+        }
+
+        for(LocalCoordinator coord : liveCoordinators.values()) {
+            CoordinatorStats stats = coordinators.get(coord.getUuid());
+            if(stats == null || stats.enabled != coord.isEnabled())
+                refreshLocked(coord);
+        }
+    }
+
+    private void refreshLocked(LocalCoordinator coord) {
+        CoordinatorStats stats = coordinators.get(coord.getUuid());
+        if(stats == null) {
+            stats = new CoordinatorStats();
+            coordinators.put(coord.getUuid(), stats);
+        }
+        else if(stats.enabled) {
+            contributeLocked(stats, -1);
+        }
+
+        stats.name = coord.getName();
+        stats.enabled = coord.isEnabled();
+        Arrays.fill(stats.total, ABSENT);
+        Arrays.fill(stats.used, ABSENT);
+
+        Map<String, Integer> resources = coord.getResources();
+        Map<String, Integer> available = coord.getAvailableResources();
+        if(resources != null) {
+            for(Map.Entry<String, Integer> res : resources.entrySet()) {
+                int index = internLocked(res.getKey());
+                stats.ensureCapacity(resourceNames.size());
+                stats.total[index] = res.getValue();
+
+                Integer free = available == null ? null : available.get(res.getKey());
+                if(free != null)
+                    stats.used[index] = res.getValue() - free;
+            }
+        }
+
+        if(stats.enabled)
+            contributeLocked(stats, 1);
+    }
+
+    private void contributeLocked(CoordinatorStats stats, int sign) {
+        int count = Math.min(stats.total.length, total.length);
+        for(int i = 0; i < count; ++i) {
+            if(stats.total[i] == ABSENT)
+                continue;
+
+            total[i] += sign * stats.total[i];
+            totalCount[i] += sign;
+            if(stats.used[i] != ABSENT) {
+                used[i] += sign * stats.used[i];
+                usedCount[i] += sign;
+            }
+        }
+    }
+
+    private int internLocked(String name) {
+        Integer index = resourceIndex.get(name);
+        if(index != null)
+            return index;
+
+        int newIndex = resourceNames.size();
+        resourceIndex.put(name, newIndex);
+        resourceNames.add(name);
+        if(newIndex >= total.length) {
+            int length = Math.max(8, total.length * 2);
+            total = Arrays.copyOf(total, length);
+            used = Arrays.copyOf(used, length);
+            totalCount = Arrays.copyOf(totalCount, length);
+            usedCount = Arrays.copyOf(usedCount, length);
+        }
+        return newIndex;
+    }
+
+    /**
+     * Records the current totals in the ring buffer, reusing the arrays of the sample it replaces.
+     */
+    public synchronized void sample() {
+        int slot = sampleNext;
+        int width = resourceNames.size();
+        if(sampleTotal[slot] == null || sampleTotal[slot].length < width) {
+            sampleTotal[slot] = new long[total.length];
+            sampleUsed[slot] = new long[total.length];
+        }
+
+        long[] slotTotal = sampleTotal[slot];
+        long[] slotUsed = sampleUsed[slot];
+        Arrays.fill(slotTotal, 0);
+        Arrays.fill(slotUsed, 0);
+        for(int i = 0; i < width; ++i) {
+            // utilization only makes sense where usage is known for every coordinator counted
+            if(totalCount[i] > 0 && usedCount[i] == totalCount[i]) {
+                slotTotal[i] = total[i];
+                slotUsed[i] = used[i];
+            }
+        }
+
+        sampleTimes[slot] = System.currentTimeMillis();
+        sampleNext = (slot + 1) % sampleTimes.length;
+        if(sampleCount < sampleTimes.length)
+            sampleCount++;
+    }
+
+    /**
+     * Appends the resources of every enabled coordinator, the network totals and the utilization
+     * trends to the report.
+     */
+    public synchronized void appendTo(ReportBuilder report) {
+        int width = resourceNames.size();
+        report.append("*Local Resources:*\n");
+        for(CoordinatorStats stats : coordinators.values()) {
+            if(!stats.enabled)
+                continue;
+
+            report.append("\t*").append(stats.name).append("*:\n");
+            for(int i = 0; i < Math.min(width, stats.total.length); ++i) {
+                if(stats.total[i] == ABSENT)
+                    continue;
+
+                report.append("\t\t").append(resourceNames.get(i)).append(": ");
+                if(stats.used[i] != ABSENT)
+                    report.append(stats.used[i]).append(" / ");
+                else
+                    report.append("? / ");
+
+                report.append(stats.total[i]).append(" used\n");
+            }
+        }
+
+        report.append("*Total Resources:*\n");
+        for(int i = 0; i < width; ++i) {
+            if(totalCount[i] == 0)
+                continue;
+
+            report.append('\t').append(resourceNames.get(i)).append(": ");
+            if(usedCount[i] > 0)
+                report.append(used[i]).append(" / ");
+            else
+                report.append("? / ");
+
+            report.append(total[i]).append(" used");
+            appendTrendLocked(report, i);
+            report.append('\n');
+        }
+    }
+
+    private void appendTrendLocked(ReportBuilder report, int index) {
+        if(sampleCount == 0)
+            return;
+
+        long now = System.currentTimeMillis();
+        report.append(" (");
+        for(int w = 0; w < TREND_WINDOWS_MILLIS.length; ++w) {
+            if(w > 0)
+                report.append(", ");
+            report.append(TREND_WINDOW_NAMES[w]).append(' ');
+
+            // walk back from the newest sample until the window is left
+            long windowUsed = 0;
+            long windowTotal = 0;
+            for(int n = 0; n < sampleCount; ++n) {
+                int slot = (sampleNext - 1 - n + sampleTimes.length) % sampleTimes.length;
+                if(now - sampleTimes[slot] > TREND_WINDOWS_MILLIS[w])
+                    break;
+
+                if(index < sampleTotal[slot].length) {
+                    windowUsed += sampleUsed[slot][index];
+                    windowTotal += sampleTotal[slot][index];
+                }
+            }
+
+            if(windowTotal > 0)
+                report.append((int) Math.round(windowUsed * 100.0 / windowTotal)).append('%');
+            else
+                report.append('?');
+        }
+        report.append(')');
+    }
+
+    private static class CoordinatorStats {
+        private String name;
+        private boolean enabled;
+        private int[] total = new int[0];
+        private int[] used = new int[0];
+
+        private void ensureCapacity(int width) {
+            if(total.length >= width)
+                return;
+
+            int length = Math.max(8, Math.max(width, total.length * 2));
+            int previous = total.length;
+            total = Arrays.copyOf(total, length);
+            used = Arrays.copyOf(used, length);
+            Arrays.fill(total, previous, length, ABSENT);
+            Arrays.fill(used, previous, length, ABSENT);
+        }
+    }
+}
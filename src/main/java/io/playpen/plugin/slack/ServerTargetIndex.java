@@ -0,0 +1,363 @@
+package io.playpen.plugin.slack;
+
+import io.playpen.core.coordinator.network.LocalCoordinator;
+import io.playpen.core.coordinator.network.Server;
+import lombok.Value;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Index of the servers of every coordinator by uuid and name, kept up to date from network events,
+ * used to resolve the coordinator and server patterns of the targeted commands. Patterns are
+ * anchored on both ends. Literal patterns are answered with a hash lookup, patterns of the form
+ * {@code literal.*} with a range of the sorted keys, and anything else falls back to matching
+ * every server, in parallel for large networks.
+ *
+ * A coordinator can disconnect without any server event, so targets are checked against the live
+ * coordinators before being acted on, see {@link #resolveLive}.
+ */
+public class ServerTargetIndex {
+    private static final int PARALLEL_SCAN_THRESHOLD = 2048;
+
+    // characters with a meaning in a regex, a pattern without any of them only matches itself
+    private static final String REGEX_METACHARACTERS = "\\^$.|?*+()[]{}";
+
+    private final PatternCache patterns;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Map<String, CoordinatorEntry> coordinators = new HashMap<>();
+
+    // servers by uuid and by name, both maps share the same sets
+    private final Map<String, Set<ServerRef>> serversByKey = new HashMap<>();
+    private final TreeMap<String, Set<ServerRef>> sortedServersByKey = new TreeMap<>();
+
+    public ServerTargetIndex(PatternCache patterns) {
+        this.patterns = patterns;
+    }
+
+    /**
+     * Replaces everything known about the coordinators.
+     */
+    public void rebuild(Collection<LocalCoordinator> localCoordinators) {
+        lock.writeLock().lock();
+        try {
+            coordinators.clear();
+            serversByKey.clear();
+            sortedServersByKey.clear();
+            for(LocalCoordinator coord : localCoordinators) {
+                syncLocked(coord);
+            }
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Replaces what is known about a single coordinator and its servers.
+     */
+    public void sync(LocalCoordinator coord) {
+        lock.writeLock().lock();
+        try {
+            syncLocked(coord);
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void syncLocked(LocalCoordinator coord) {
+        CoordinatorEntry previous = coordinators.get(coord.getUuid());
+        if(previous != null) {
+            for(ServerRef server : new ArrayList<>(previous.servers.values())) {
+                removeLocked(previous, server.getServerUuid());
+            }
+        }
+
+        CoordinatorEntry entry = new CoordinatorEntry(coord.getUuid(), coord.getName());
+        coordinators.put(entry.uuid, entry);
+        if(coord.getServers() != null) {
+            for(Server server : coord.getServers().values()) {
+                addLocked(entry, server.getUuid(), server.getName());
+            }
+        }
+    }
+
+    public void addServer(LocalCoordinator coord, Server server) {
+        lock.writeLock().lock();
+        try {
+            CoordinatorEntry entry = coordinators.get(coord.getUuid());
+            if(entry == null) {
+                syncLocked(coord);
+                entry = coordinators.get(coord.getUuid());
+            }
+
+            removeLocked(entry, server.getUuid());
+            addLocked(entry, server.getUuid(), server.getName());
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Forgets a coordinator and all of its servers.
+     */
+    public void removeCoordinator(String coordUuid) {
+        lock.writeLock().lock();
+        try {
+            CoordinatorEntry entry = coordinators.remove(coordUuid);
+            if(entry != null) {
+                for(ServerRef server : new ArrayList<>(entry.servers.values())) {
+                    removeLocked(entry, server.getServerUuid());
+                }
+            }
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void removeServer(LocalCoordinator coord, Server server) {
+        lock.writeLock().lock();
+        try {
+            CoordinatorEntry entry = coordinators.get(coord.getUuid());
+            if(entry != null)
+                removeLocked(entry, server.getUuid());
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void addLocked(CoordinatorEntry coord, String serverUuid, String serverName) {
+        ServerRef server = new ServerRef(coord.uuid, serverUuid, serverName);
+        coord.servers.put(serverUuid, server);
+        indexLocked(serverUuid, server);
+        if(serverName != null)
+            indexLocked(serverName, server);
+    }
+
+    private void removeLocked(CoordinatorEntry coord, String serverUuid) {
+        ServerRef server = coord.servers.remove(serverUuid);
+        if(server == null)
+            return;
+
+        unindexLocked(server.getServerUuid(), server);
+        if(server.getServerName() != null)
+            unindexLocked(server.getServerName(), server);
+    }
+
+    private void indexLocked(String key, ServerRef server) {
+        Set<ServerRef> servers = serversByKey.get(key);
+        if(servers == null) {
+            servers = new HashSet<>(2);
+            serversByKey.put(key, servers);
+            sortedServersByKey.put(key, servers);
+        }
+        servers.add(server);
+    }
+
+    private void unindexLocked(String key, ServerRef server) {
+        Set<ServerRef> servers = serversByKey.get(key);
+        if(servers == null)
+            return;
+
+        servers.remove(server);
+        if(servers.isEmpty()) {
+            serversByKey.remove(key);
+            sortedServersByKey.remove(key);
+        }
+    }
+
+    /**
+     * Returns the uuids of the servers matching the server pattern, by uuid of their coordinator,
+     * for the coordinators matching the coordinator pattern. Both patterns match either a uuid or
+     * a name. Throws {@link java.util.regex.PatternSyntaxException} if a pattern is not valid and
+     * {@link PatternBudgetExceededException} if matching a pattern takes too long.
+     */
+    public Map<String, List<String>> resolve(String coordinatorPattern, String serverPattern) {
+        TargetPattern coordTarget = new TargetPattern(patterns.get(coordinatorPattern));
+        TargetPattern serverTarget = new TargetPattern(patterns.get(serverPattern));
+
+        lock.readLock().lock();
+        try {
+            Set<String> coordUuids = new HashSet<>();
+            for(CoordinatorEntry coord : coordinators.values()) {
+                if(coordTarget.matches(coord.uuid) || (coord.name != null && coordTarget.matches(coord.name)))
+                    coordUuids.add(coord.uuid);
+            }
+
+            if(coordUuids.isEmpty())
+                return Collections.emptyMap();
+
+            Collection<ServerRef> candidates = findServersLocked(serverTarget, coordUuids);
+            Map<String, List<String>> servers = new LinkedHashMap<>();
+            for(ServerRef server : candidates) {
+                if(!coordUuids.contains(server.getCoordinatorUuid()))
+                    continue;
+
+                List<String> serverList = servers.get(server.getCoordinatorUuid());
+                if(serverList == null) {
+                    serverList = new ArrayList<>();
+                    servers.put(server.getCoordinatorUuid(), serverList);
+                }
+                serverList.add(server.getServerUuid());
+            }
+            return servers;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Resolves the patterns like {@link #resolve}, then keeps only the servers the live coordinators
+     * still have. Coordinators which are gone are dropped from the index, and those found to differ
+     * from it are synced again.
+     */
+    public Map<String, List<String>> resolveLive(String coordinatorPattern, String serverPattern,
+                                                 Map<String, LocalCoordinator> liveCoordinators) {
+        Map<String, List<String>> servers = new LinkedHashMap<>();
+        for(Map.Entry<String, List<String>> entry : resolve(coordinatorPattern, serverPattern).entrySet()) {
+            LocalCoordinator coord = liveCoordinators.get(entry.getKey());
+            if(coord == null) {
+                removeCoordinator(entry.getKey());
+                continue;
+            }
+
+            Map<String, Server> liveServers = coord.getServers();
+            List<String> serverList = new ArrayList<>(entry.getValue().size());
+            for(String serverUuid : entry.getValue()) {
+                if(liveServers != null && liveServers.containsKey(serverUuid))
+                    serverList.add(serverUuid);
+            }
+
+            if(serverList.size() != entry.getValue().size())
+                sync(coord);
+            if(!serverList.isEmpty())
+                servers.put(entry.getKey(), serverList);
+        }
+        return servers;
+    }
+
+    private Collection<ServerRef> findServersLocked(TargetPattern target, Set<String> coordUuids) {
+        if(target.literal != null) {
+            Set<ServerRef> servers = serversByKey.get(target.literal);
+            return servers == null ? Collections.<ServerRef>emptySet() : servers;
+        }
+
+        if(target.prefix != null) {
+            // a server matching by both uuid and name must only be listed once
+            Set<ServerRef> servers = new LinkedHashSet<>();
+            Map<String, Set<ServerRef>> range = target.prefix.isEmpty() ? sortedServersByKey
+                    : sortedServersByKey.subMap(target.prefix, true, target.prefix + Character.MAX_VALUE, false);
+            for(Set<ServerRef> keyServers : range.values()) {
+                servers.addAll(keyServers);
+            }
+            return servers;
+        }
+
+        List<ServerRef> all = new ArrayList<>();
+        for(String coordUuid : coordUuids) {
+            all.addAll(coordinators.get(coordUuid).servers.values());
+        }
+
+        Stream<ServerRef> stream = all.size() >= PARALLEL_SCAN_THRESHOLD ? all.parallelStream() : all.stream();
+        return stream
+                .filter(server -> target.matches(server.getServerUuid())
+                        || (server.getServerName() != null && target.matches(server.getServerName())))
+                .collect(Collectors.toList());
+    }
+
+    public int getServerCount() {
+        lock.readLock().lock();
+        try {
+            int count = 0;
+            for(CoordinatorEntry coord : coordinators.values()) {
+                count += coord.servers.size();
+            }
+            return count;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * A user supplied pattern, classified once so that the cheapest way to match it is used.
+     */
+    private static class TargetPattern {
+        private final String literal;
+        private final String prefix;
+        private final BudgetedPattern pattern;
+
+        // always compiled first, so that invalid patterns are reported the same way whatever their shape
+        private TargetPattern(BudgetedPattern pattern) {
+            this.pattern = pattern;
+            String source = pattern.getSource();
+            if(isLiteral(source)) {
+                literal = source;
+                prefix = null;
+            }
+            else if(source.endsWith(".*") && isLiteral(source.substring(0, source.length() - 2))) {
+                literal = null;
+                prefix = source.substring(0, source.length() - 2);
+            }
+            else {
+                literal = null;
+                prefix = null;
+            }
+        }
+
+        private static boolean isLiteral(String source) {
+            for(int i = 0; i < source.length(); ++i) {
+                if(REGEX_METACHARACTERS.indexOf(source.charAt(i)) >= 0)
+                    return false;
+            }
+            return true;
+        }
+
+        private boolean matches(String value) {
+            if(literal != null)
+                return literal.equals(value);
+
+            if(prefix != null)
+                return value.startsWith(prefix);
+
+            return pattern.matches(value);
+        }
+    }
+
+    private static class CoordinatorEntry {
+        private final String uuid;
+        private final String name;
+        private final Map<String, ServerRef> servers = new HashMap<>();
+
+        private CoordinatorEntry(String uuid, String name) {
+            this.uuid = uuid;
+            this.name = name;
+        }
+    }
+
+    @Value
+    private static class ServerRef {
+        private String coordinatorUuid;
+        private String serverUuid;
+        private String serverName;
+    }
+}
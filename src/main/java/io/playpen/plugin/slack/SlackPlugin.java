@@ -2,6 +2,7 @@ package io.playpen.plugin.slack;
 
 import com.google.common.base.Joiner;
 import com.google.common.collect.ComparisonChain;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.ullink.slack.simpleslackapi.*;
 import com.ullink.slack.simpleslackapi.impl.SlackSessionFactory;
 import io.playpen.core.coordinator.CoordinatorMode;
@@ -13,18 +14,50 @@ import io.playpen.core.plugin.EventManager;
 import io.playpen.core.plugin.IPlugin;
 import lombok.extern.log4j.Log4j2;
 
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
-import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 @Log4j2
-public class SlackPlugin extends AbstractPlugin implements INetworkListener, SlackMessageListener {
+public class SlackPlugin extends AbstractPlugin implements INetworkListener {
+    private static final String[] COMMANDS = { "help", "list", "show", "provision", "deprovision", "shutdown", "promote",
+            "send", "freeze", "list-packages", "list-plugins", "pass", "stats", "metrics" };
+
+    // how long a progress message waits for the messages queued before it
+    private static final long PROGRESS_ORDERING_TIMEOUT_SECONDS = 10;
+
     private SlackSession session = null;
     private SlackChannel channel = null;
     private SlackUser user = null;
+    private OutboundMessageQueue outbound = null;
+    private MessageOutbox outbox = null;
+    private NotificationDigest digest = null;
+    private PatternCache patterns = null;
+    private ServerTargetIndex targets = null;
+    private ResourceStats resourceStats = null;
+    private ExecutorService bulkExecutor = null;
+    private ExecutorService progressExecutor = null;
+    private int bulkParallelism = 16;
+    private long progressInterval = 2000;
+    private int reportChunkSize = 3900;
+    private int reportMaxChunks = 5;
+    private final ThreadLocal<ReportBuilder> reports = ThreadLocal.withInitial(ReportBuilder::new);
+    private final Map<String, SlackLatencyHistogram> commandTimers = new HashMap<>();
 
     public void sendMessage(String message) {
-        session.sendMessage(channel, message, null, "playpen", null);
+        outbound.offer(message);
+    }
+
+    /**
+     * Returns the metrics of the slack session, which include those of the plugin.
+     */
+    public SlackMetrics getMetrics() {
+        return session == null ? null : session.getMetrics();
     }
 
     @Override
@@ -34,81 +67,200 @@ public class SlackPlugin extends AbstractPlugin implements INetworkListener, Sla
             return false;
         }
 
-        session = SlackSessionFactory.createWebSocketSlackSession(getConfig().getString("api-key"));
-        session.addMessageListener(this);
-        session.connect();
+        SlackSessionFactory.SlackSessionFactoryBuilder sessionBuilder =
+                SlackSessionFactory.getSlackSessionBuilder(getConfig().getString("api-key"))
+                .withApiBaseUrl(getConfig().optString("api-url", "https://slack.com/api/"))
+                .withMaxConnectionsPerRoute(getConfig().optInt("http-max-connections-per-route", 4))
+                .withMaxConnections(getConfig().optInt("http-max-connections", 20))
+                .withIdleConnectionTimeout(getConfig().optInt("http-idle-timeout", 30), TimeUnit.SECONDS)
+                .withPingInterval(getConfig().optInt("ping-interval", 30), TimeUnit.SECONDS, getConfig().optInt("ping-max-missed", 2));
+
+        // off by default: a reused directory misses the changes made while the coordinator was down
+        String directoryCache = getConfig().optString("directory-cache", "");
+        if(directoryCache != null && !directoryCache.isEmpty()) {
+            sessionBuilder.withDirectoryCache(Paths.get(directoryCache), getConfig().optLong("directory-max-age", 60),
+                    TimeUnit.MINUTES);
+        }
+        session = sessionBuilder.build();
+        if(!session.connect())
+            return abortStart("Unable to connect to slack", null);
 
         channel = session.findChannelByName(getConfig().getString("channel"));
         user = session.findUserByUserName("playpen");
 
-        if(channel == null) {
-            log.fatal("Unable to find channel " + getConfig().getString("channel"));
-            return false;
-        }
+        if(channel == null)
+            return abortStart("Unable to find channel " + getConfig().getString("channel"), null);
 
-        if(user == null) {
-            log.fatal("Unable to find user playpen");
-            return false;
+        if(user == null)
+            return abortStart("Unable to find user playpen", null);
+
+        OutboundMessageQueue.OverflowPolicy overflowPolicy;
+        try {
+            overflowPolicy = OutboundMessageQueue.OverflowPolicy.valueOf(
+                    getConfig().optString("queue-overflow", "coalesce").toUpperCase().replace('-', '_'));
+        }
+        catch(IllegalArgumentException e) {
+            return abortStart("Unknown queue-overflow policy " + getConfig().optString("queue-overflow", null), null);
         }
 
-        Network.get().getScheduler().scheduleAtFixedRate(() -> {
+        String outboxFile = getConfig().optString("outbox-file", "slack-outbox.dat");
+        if(outboxFile != null && !outboxFile.isEmpty()) {
+            try {
+                outbox = MessageOutbox.open(Paths.get(outboxFile), getConfig().optInt("outbox-size", 1024 * 1024),
+                        Network.get().getScheduler(), getConfig().optLong("outbox-sync-interval", 200));
+            }
+            catch(IOException e) {
+                return abortStart("Unable to open outbox " + outboxFile, e);
+            }
+        }
 
-            session.connect(); // slack gets disconnected occasionally, not sure why. reconnect every 5 minutes.
-                               // TODO: Fix this hacky POS
-        }, 5, 5, TimeUnit.MINUTES);
+        outbound = new OutboundMessageQueue(session, channel, getConfig().optInt("queue-capacity", 1000), overflowPolicy,
+                outbox);
+        if(outbox != null && outbox.getPendingCount() > 0) {
+            log.info("Replaying " + outbox.getPendingCount() + " undelivered slack messages");
+            outbound.restore(outbox.getPending());
+        }
+        outbound.start(getConfig().optInt("queue-workers", 1));
+
+        SlackMetrics metrics = session.getMetrics();
+        metrics.gauge("plugin.outbound.depth", outbound::getDepth);
+        metrics.gauge("plugin.outbound.high-water-mark", outbound::getHighWaterMark);
+        metrics.gauge("plugin.outbound.sent", outbound::getSent);
+        metrics.gauge("plugin.outbound.failed", outbound::getFailed);
+        metrics.gauge("plugin.outbound.dropped", outbound::getDropped);
+        metrics.gauge("plugin.outbound.coalesced", outbound::getCoalesced);
+        metrics.gauge("plugin.outbound.retried", outbound::getRetried);
+        if(outbox != null) {
+            metrics.gauge("plugin.outbox.pending", outbox::getPendingCount);
+            metrics.gauge("plugin.outbox.size", outbox::getSize);
+            metrics.gauge("plugin.outbox.unlogged", outbox::getUnloggedCount);
+        }
+
+        // histograms are looked up once, timing a command does not allocate
+        for(String command : COMMANDS) {
+            commandTimers.put(command, metrics.histogram("command." + command + ".time"));
+        }
+
+        digest = new NotificationDigest(this::sendMessage, Network.get().getScheduler(),
+                getConfig().optLong("digest-window", 2000));
+
+        patterns = new PatternCache(getConfig().optInt("regex-cache-size", 64), getConfig().optLong("regex-step-budget", 1000000));
+        targets = new ServerTargetIndex(patterns);
+        bulkParallelism = getConfig().optInt("bulk-parallelism", 16);
+        progressInterval = getConfig().optLong("progress-interval", 2000);
+        reportChunkSize = getConfig().optInt("report-chunk-size", 3900);
+        reportMaxChunks = getConfig().optInt("report-max-chunks", 5);
+        bulkExecutor = Executors.newCachedThreadPool(
+                new ThreadFactoryBuilder().setNameFormat("slack-bulk-%d").setDaemon(true).build());
+        // progress updates block on slack, keep them off the network scheduler
+        progressExecutor = Executors.newFixedThreadPool(2,
+                new ThreadFactoryBuilder().setNameFormat("slack-progress-%d").setDaemon(true).build());
+        targets.rebuild(Network.get().getCoordinators().values());
+        resourceStats = new ResourceStats(getConfig().optLong("stats-sample-interval", 10) * 1000);
+        resourceStats.rebuild(Network.get().getCoordinators().values());
+        resourceStats.start(Network.get().getScheduler(), Network.get()::getCoordinators);
+
+        // only commands, messages of our channel starting with a mention of the bot, are routed to us
+        session.subscribe(SlackSubscription.getSubscriptionBuilder(SlackEventType.MESSAGE)
+                .withChannel(channel.getId())
+                .withMention(user.getId())
+                .build(this::onMessage));
 
         return Network.get().getEventManager().registerListener(this);
     }
 
+    /**
+     * Releases what a failed start had already set up, the session first of all, which would
+     * otherwise keep reconnecting to slack.
+     */
+    private boolean abortStart(String reason, Throwable cause) {
+        log.fatal(reason, cause);
+        onStop();
+        return false;
+    }
+
+    @Override
+    public void onStop() {
+        if(digest != null)
+            digest.flush();
+
+        if(outbound != null)
+            outbound.stop(5, TimeUnit.SECONDS);
+
+        if(outbox != null)
+            outbox.close();
+
+        if(bulkExecutor != null)
+            bulkExecutor.shutdownNow();
+
+        if(progressExecutor != null)
+            progressExecutor.shutdownNow();
+
+        if(resourceStats != null)
+            resourceStats.stop();
+
+        if(session != null)
+            session.disconnect();
+    }
+
     @Override
     public void onNetworkStartup() {
-        sendMessage("Network coordinator has started");
+        digest.urgent("Network coordinator has started");
     }
 
     @Override
     public void onNetworkShutdown() {
-        sendMessage("Network coordinator has shut down");
+        digest.urgent("Network coordinator has shut down");
     }
 
     @Override
     public void onCoordinatorCreated(LocalCoordinator localCoordinator) {
-        // don't care
+        targets.sync(localCoordinator);
+        resourceStats.refresh(localCoordinator);
     }
 
     @Override
     public void onCoordinatorSync(LocalCoordinator localCoordinator) {
-        // don't care
+        targets.sync(localCoordinator);
+        resourceStats.refresh(localCoordinator);
     }
 
     @Override
     public void onRequestProvision(LocalCoordinator localCoordinator, Server server) {
-        sendMessage("Provisioning " + server.getP3().getId() + " (" + server.getP3().getVersion() + ") on " +
-                "coordinator " + localCoordinator.getName() + " as server " + server.getName());
+        targets.addServer(localCoordinator, server);
+        resourceStats.refresh(localCoordinator);
+        digest.provisionRequested(localCoordinator.getName(), server.getP3().getId(), server.getP3().getVersion(),
+                server.getName());
     }
 
     @Override
     public void onProvisionResponse(LocalCoordinator localCoordinator, Server server, boolean b) {
-        if(b) {
-            sendMessage(server.getName() + " has been provisioned");
-        }
-        else {
-            sendMessage(server.getName() + " failed provisioning");
-        }
+        if(b)
+            targets.addServer(localCoordinator, server);
+        else
+            targets.removeServer(localCoordinator, server);
+
+        resourceStats.refresh(localCoordinator);
+        digest.provisionResponded(localCoordinator.getName(), server.getP3().getId(), server.getP3().getVersion(),
+                server.getName(), b);
     }
 
     @Override
     public void onRequestDeprovision(LocalCoordinator localCoordinator, Server server) {
-        sendMessage("Deprovisioning server " + server.getName());
+        resourceStats.refresh(localCoordinator);
+        digest.deprovisionRequested(localCoordinator.getName(), server.getName());
     }
 
     @Override
     public void onServerShutdown(LocalCoordinator localCoordinator, Server server) {
-        sendMessage("Server " + server.getName() + " has shut down");
+        targets.removeServer(localCoordinator, server);
+        resourceStats.refresh(localCoordinator);
+        digest.serverShutdown(localCoordinator.getName(), server.getName());
     }
 
     @Override
     public void onRequestShutdown(LocalCoordinator localCoordinator) {
-        sendMessage("Shutting down coordinator " + localCoordinator.getName());
+        digest.urgent("Shutting down coordinator " + localCoordinator.getName());
     }
 
     @Override
@@ -129,87 +281,85 @@ public class SlackPlugin extends AbstractPlugin implements INetworkListener, Sla
         // don't care
     }
 
-    @Override
-    public void onSessionLoad(SlackSession session) {
-        // don't care
-    }
-
-    @Override
     public void onMessage(SlackMessage message) {
-        if(!message.getChannel().getId().equals(channel.getId()))
-            return; // we only want our channel
-
-        if(message.getSender().getId().equals(user.getId()))
+        if(message.getSender() == null || message.getSender().getId().equals(user.getId()))
             return; // ignore
 
-        String myUser = ("<@" + user.getId() + ">").toLowerCase();
+        String[] args = message.getMessageContent().split(" ");
+        if(args.length < 2) {
+            sendMessage("Hi there! Say '@playpen help' for a list of commands.");
+            return;
+        }
 
-        if(message.getMessageContent().toLowerCase().startsWith(myUser)) {
-            String[] args = message.getMessageContent().split(" ");
-            if(args.length < 2) {
-                sendMessage("Hi there! Say '@playpen help' for a list of commands.");
-            }
+        String command = args[1].toLowerCase();
+        long startedAt = System.nanoTime();
+        switch(command) {
+            default:
+                sendMessage("Unknown command '" + args[1] + "', try saying '@playpen help'!");
+                break;
 
-            switch(args[1].toLowerCase()) {
-                default:
-                    sendMessage("Unknown command '" + args[1] + "', try saying '@playpen help'!");
-                    break;
+            case "help":
+                sendMessage("Available commands:\n" +
+                        "help, list, show, provision, deprovision, shutdown, promote, send, freeze, " +
+                        "list-packages, list-plugins, pass, stats, metrics");
+                break;
 
-                case "help":
-                    sendMessage("Available commands:\n" +
-                            "help, list, show, provision, deprovision, shutdown, promote, send, freeze, " +
-                            "list-packages, list-plugins, pass, stats");
-                    break;
+            case "list":
+                runListCommand(args);
+                break;
 
-                case "list":
-                    runListCommand(args);
-                    break;
+            case "show":
+                runShowCommand(args);
+                break;
 
-                case "show":
-                    runShowCommand(args);
-                    break;
+            case "provision":
+                runProvisionCommand(args);
+                break;
 
-                case "provision":
-                    runProvisionCommand(args);
-                    break;
+            case "deprovision":
+                runDeprovisionCommand(args);
+                break;
 
-                case "deprovision":
-                    runDeprovisionCommand(args);
-                    break;
+            case "shutdown":
+                runShutdownCommand(args);
+                break;
 
-                case "shutdown":
-                    runShutdownCommand(args);
-                    break;
+            case "promote":
+                runPromoteCommand(args);
+                break;
 
-                case "promote":
-                    runPromoteCommand(args);
-                    break;
+            case "send":
+                runSendCommand(args);
+                break;
 
-                case "send":
-                    runSendCommand(args);
-                    break;
+            case "freeze":
+                runFreezeCommand(args);
+                break;
 
-                case "freeze":
-                    runFreezeCommand(args);
-                    break;
+            case "list-packages":
+                runListPackagesCommand(args);
+                break;
 
-                case "list-packages":
-                    runListPackagesCommand(args);
-                    break;
+            case "list-plugins":
+                runListPluginsCommand(args);
+                break;
 
-                case "list-plugins":
-                    runListPluginsCommand(args);
-                    break;
+            case "pass":
+                runPassCommand(args);
+                break;
 
-                case "pass":
-                    runPassCommand(args);
-                    break;
+            case "stats":
+                runStatsCommand(args);
+                break;
 
-                case "stats":
-                    runStatsCommand(args);
-                    break;
-            }
+            case "metrics":
+                runMetricsCommand(args);
+                break;
         }
+
+        SlackLatencyHistogram timer = commandTimers.get(command);
+        if(timer != null)
+            timer.recordNanos(System.nanoTime() - startedAt);
     }
 
     private void runListCommand(String[] args) {
@@ -219,38 +369,44 @@ public class SlackPlugin extends AbstractPlugin implements INetworkListener, Sla
             return;
         }
 
-        sendMessage("Give me a moment...");
+        Collection<LocalCoordinator> coordinators = Network.get().getCoordinators().values();
+        ProgressMessage progress = startProgress("Give me a moment...");
 
         int count = 0;
+        int looked = 0;
 
-        String result = "";
-        for(LocalCoordinator coord : Network.get().getCoordinators().values()) {
+        ReportBuilder result = reports.get().reset();
+        for(LocalCoordinator coord : coordinators) {
+            progress.update("Listing coordinators: " + looked++ + "/" + coordinators.size());
             if(!coord.isEnabled() || coord.getChannel() == null || !coord.getChannel().isActive())
                 continue;
 
             count++;
 
-            result += "Coordinator " + coord.getName() + '\n';
-            result += "  uuid: " + coord.getUuid() + '\n';
-
-            List<String> names = new ArrayList<>();
+            result.append("Coordinator ").append(coord.getName()).append('\n');
+            result.append("  uuid: ").append(coord.getUuid()).append('\n');
+            result.append("  Servers: ");
 
+            boolean first = true;
             for(Server server : coord.getServers().values()) {
                 if(!server.isActive())
                     continue;
 
-                names.add(server.getName());
+                if(!first)
+                    result.append(", ");
+                result.append(server.getName());
+                first = false;
             }
 
-            result += "  Servers: " + Joiner.on(", ").join(names) + "\n";
+            result.append('\n');
         }
 
         if(count == 0) {
-            sendMessage("There are no active coordinators for me to list!");
+            progress.complete("There are no active coordinators for me to list!");
             return;
         }
 
-        sendMessage(result);
+        deliverReport(progress, result, "Coordinators");
     }
 
     private void runShowCommand(String[] args) {
@@ -260,41 +416,56 @@ public class SlackPlugin extends AbstractPlugin implements INetworkListener, Sla
             return;
         }
 
-        sendMessage("Give me a moment...");
+        BudgetedPattern serverPattern = compilePattern(args[2]);
+        if(serverPattern == null)
+            return;
 
-        int count = 0;
+        Collection<LocalCoordinator> coordinators = Network.get().getCoordinators().values();
+        ProgressMessage progress = startProgress("Give me a moment...");
 
-        String result = "";
+        int count = 0;
+        int looked = 0;
 
-        Pattern serverPattern = Pattern.compile('^' + args[2] + '$');
+        ReportBuilder result = reports.get().reset();
 
-        for(LocalCoordinator coord : Network.get().getCoordinators().values()) {
+        for(LocalCoordinator coord : coordinators) {
+            progress.update("Searching coordinators: " + looked++ + "/" + coordinators.size() + ", " + count + " servers found");
             if(!coord.isEnabled() || coord.getChannel() == null || !coord.getChannel().isActive())
                 continue;
 
             for(Server server : coord.getServers().values()) {
-                if(!server.isActive() || !serverPattern.matcher(server.getName()).matches())
+                if(!server.isActive())
                     continue;
 
+                try {
+                    if(!serverPattern.matches(server.getName()))
+                        continue;
+                }
+                catch(PatternBudgetExceededException e) {
+                    progress.complete("Pattern " + e.getPattern() + " is too expensive to match, giving up.");
+                    return;
+                }
+
                 count++;
 
-                result += "  Server " + server.getName() + '\n';
-                result += "    uuid: " + server.getUuid() + '\n';
-                result += "    coordinator: " + coord.getName() + '\n';
-                result += "    package: " + server.getP3().getId() + " (" + server.getP3().getVersion() + ")\n";
+                result.append("  Server ").append(server.getName()).append('\n');
+                result.append("    uuid: ").append(server.getUuid()).append('\n');
+                result.append("    coordinator: ").append(coord.getName()).append('\n');
+                result.append("    package: ").append(server.getP3().getId())
+                        .append(" (").append(server.getP3().getVersion()).append(")\n");
 
                 for(Map.Entry<String, String> entry : server.getProperties().entrySet()) {
-                    result += "    prop: " + entry.getKey() + " = " + entry.getValue() + '\n';
+                    result.append("    prop: ").append(entry.getKey()).append(" = ").append(entry.getValue()).append('\n');
                 }
             }
         }
 
         if(count == 0) {
-            sendMessage("There are no active servers that match that regex!");
+            progress.complete("There are no active servers that match that regex!");
             return;
         }
 
-        sendMessage(result);
+        deliverReport(progress, result, "Servers matching " + args[2]);
     }
 
     private void runProvisionCommand(String[] args) {
@@ -373,47 +544,21 @@ public class SlackPlugin extends AbstractPlugin implements INetworkListener, Sla
             return;
         }
 
-        Pattern coordPattern = Pattern.compile('^' + args[2] + '$');
-        Pattern serverPattern = Pattern.compile('^' + args[3] + '$');
         boolean force = args.length == 5 && (args[4].trim().toLowerCase().equals("true"));
 
         if(force)
             sendMessage("Note: deprovisioning via force");
 
-        sendMessage("One moment please...");
-
-        Map<String, List<String>> servers = new HashMap<>();
-        for(LocalCoordinator coord : Network.get().getCoordinators().values()) {
-            if(coordPattern.matcher(coord.getUuid()).matches() ||
-                    (coord.getName() != null && coordPattern.matcher(coord.getName()).matches())) {
-                List<String> serverList = new LinkedList<>();
-                for(Server server : coord.getServers().values()) {
-                    if(serverPattern.matcher(server.getUuid()).matches() ||
-                            (server.getName() != null && serverPattern.matcher(server.getName()).matches())) {
-                        serverList.add(server.getUuid());
-                    }
-                }
-
-                if(!serverList.isEmpty())
-                    servers.put(coord.getUuid(), serverList);
-            }
-        }
+        Map<String, List<String>> servers = resolveTargets(args[2], args[3]);
+        if(servers == null)
+            return;
 
         if(servers.isEmpty()) {
             sendMessage("I couldn't find any servers to deprovision matching those patterns.");
             return;
         }
 
-        for(Map.Entry<String, List<String>> entry : servers.entrySet()) {
-            String coord = entry.getKey();
-            for(String server : entry.getValue()) {
-                if(!Network.get().deprovision(coord, server, force)) {
-                    sendMessage("Unable to send deprovision for " + server + " on coordinator " + coord);
-                }
-            }
-        }
-
-        sendMessage("Deprovision operation complete!");
+        runBulkOperation("Deprovision", servers, (coord, server) -> Network.get().deprovision(coord, server, force));
     }
 
     private void runShutdownCommand(String[] args) {
@@ -478,51 +623,22 @@ public class SlackPlugin extends AbstractPlugin implements INetworkListener, Sla
             return;
         }
 
-        Pattern coordPattern = Pattern.compile('^' + args[2] + '$');
-        Pattern serverPattern = Pattern.compile('^' + args[3] + "$");
         StringBuilder builder = new StringBuilder();
         for(int i = 4; i < args.length; ++i) {
             builder.append(args[i] + (i == args.length - 1? '\n' : ' '));
         }
         String input = builder.toString();
 
-        sendMessage("One moment please...");
-
-        Map<String, List<String>> servers = new HashMap<>();
-        for(LocalCoordinator coord : Network.get().getCoordinators().values()) {
-            if(coordPattern.matcher(coord.getUuid()).matches() ||
-                    (coord.getName() != null && coordPattern.matcher(coord.getName()).matches())) {
-                List<String> serverList = new LinkedList<>();
-                for(Server server : coord.getServers().values()) {
-                    if(serverPattern.matcher(server.getUuid()).matches() ||
-                            (server.getName() != null && serverPattern.matcher(server.getName()).matches())) {
-                        serverList.add(server.getUuid());
-                    }
-                }
-
-                if(!serverList.isEmpty())
-                    servers.put(coord.getUuid(), serverList);
-            }
-        }
+        Map<String, List<String>> servers = resolveTargets(args[2], args[3]);
+        if(servers == null)
+            return;
 
         if(servers.isEmpty()) {
             sendMessage("I couldn't find any servers to send input to which match those patterns.");
             return;
         }
 
-        for(Map.Entry<String, List<String>> entry : servers.entrySet()) {
-            String coord = entry.getKey();
-            for(String server : entry.getValue()) {
-                if(Network.get().sendInput(coord, server, input)) {
-                    sendMessage("Sent input to server " + server);
-                }
-                else {
-                    sendMessage("Unable to send input to server " + server);
-                }
-            }
-        }
-
-        sendMessage("Send operation completed!");
+        runBulkOperation("Send", servers, (coord, server) -> Network.get().sendInput(coord, server, input));
     }
 
     private void runFreezeCommand(String[] args) {
@@ -534,46 +650,111 @@ public class SlackPlugin extends AbstractPlugin implements INetworkListener, Sla
             return;
         }
 
-        Pattern coordPattern = Pattern.compile('^' + args[2] + '$');
-        Pattern serverPattern = Pattern.compile('^' + args[3] + "$");
+        Map<String, List<String>> servers = resolveTargets(args[2], args[3]);
+        if(servers == null)
+            return;
 
-        sendMessage("One moment please...");
+        if(servers.isEmpty()) {
+            sendMessage("I couldn't find any servers to freeze that match those patterns.");
+            return;
+        }
 
-        Map<String, List<String>> servers = new HashMap<>();
-        for(LocalCoordinator coord : Network.get().getCoordinators().values()) {
-            if(coordPattern.matcher(coord.getUuid()).matches() ||
-                    (coord.getName() != null && coordPattern.matcher(coord.getName()).matches())) {
-                List<String> serverList = new LinkedList<>();
-                for(Server server : coord.getServers().values()) {
-                    if(serverPattern.matcher(server.getUuid()).matches() ||
-                            (server.getName() != null && serverPattern.matcher(server.getName()).matches())) {
-                        serverList.add(server.getUuid());
-                    }
-                }
+        runBulkOperation("Freeze", servers, (coord, server) -> Network.get().freezeServer(coord, server));
+    }
+
+    /**
+     * Runs the action against every server concurrently, reporting progress and then a summary in a
+     * single message.
+     */
+    private void runBulkOperation(String operation, Map<String, List<String>> servers, BulkOperation.Action action) {
+        int total = 0;
+        for(List<String> serverList : servers.values()) {
+            total += serverList.size();
+        }
+
+        final int count = total;
+        ProgressMessage progress = startProgress(operation + " in progress: 0/" + count + " servers");
+        BulkOperation.Summary summary = new BulkOperation(bulkExecutor, bulkParallelism).execute(servers, action,
+                done -> progress.update(operation + " in progress: " + done + "/" + count + " servers"));
+        progress.complete(summary.describe(operation));
+    }
+
+    /**
+     * Sends a command answer. Small reports replace the progress message, if any, larger ones are
+     * split in several messages, and reports which would take too many messages are uploaded as a
+     * snippet instead.
+     */
+    private void deliverReport(ProgressMessage progress, ReportBuilder report, String title) {
+        List<String> chunks = report.chunks(reportChunkSize);
+        if(chunks.size() > reportMaxChunks) {
+            SlackReply reply = null;
+            try {
+                reply = session.uploadSnippet(channel, report.toString(), title).getReplyFuture().join();
+            }
+            catch(CompletionException e) {
+                log.error("Unable to upload report", e.getCause());
+            }
 
-                if(!serverList.isEmpty())
-                    servers.put(coord.getUuid(), serverList);
+            if(reply != null && reply.isOk()) {
+                String summary = title + " is too large for chat, uploaded it as a snippet (" + report.length() + " characters)";
+                if(progress != null)
+                    progress.complete(summary);
+                else
+                    sendMessage(summary);
+                return;
             }
+            log.warn("Unable to upload report as a snippet, sending it in " + chunks.size() + " messages");
         }
 
-        if(servers.isEmpty()) {
-            sendMessage("I couldn't find any servers to freeze that match those patterns.");
-            return;
+        for(int i = 0; i < chunks.size(); ++i) {
+            if(i == 0 && progress != null)
+                progress.complete(chunks.get(i));
+            else
+                sendMessage(chunks.get(i));
         }
+    }
 
-        for(Map.Entry<String, List<String>> entry : servers.entrySet()) {
-            String coord = entry.getKey();
-            for(String server : entry.getValue()) {
-                if(Network.get().freezeServer(coord, server)) {
-                    sendMessage("Sent freeze to server " + server);
-                }
-                else {
-                    sendMessage("Unable to send freeze to server " + server);
-                }
-            }
+    /**
+     * Posts a progress message. It is sent straight to slack, as its timestamp is needed to edit it,
+     * so the messages queued before it are delivered first to keep the channel in order. Network
+     * notifications still held by the digest are not waited for, they are not tied to the command.
+     */
+    private ProgressMessage startProgress(String text) {
+        if(!outbound.awaitDelivery(PROGRESS_ORDERING_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+            log.warn("Queued messages still undelivered, progress message may be posted ahead of them");
+
+        return ProgressMessage.start(session, channel, Network.get().getScheduler(), progressExecutor, progressInterval,
+                this::sendMessage, text);
+    }
+
+    /**
+     * Compiles a pattern from the chat, telling the user what is wrong with it if it is invalid.
+     */
+    private BudgetedPattern compilePattern(String source) {
+        try {
+            return patterns.get(source);
         }
+        catch(PatternSyntaxException e) {
+            sendMessage("Invalid pattern " + source + ": " + e.getDescription());
+            return null;
+        }
+    }
 
-        sendMessage("Freeze operation completed!");
+    /**
+     * Resolves the targets of a command, telling the user if a pattern is invalid or too expensive
+     * to match. Returns null in that case.
+     */
+    private Map<String, List<String>> resolveTargets(String coordinatorPattern, String serverPattern) {
+        try {
+            return targets.resolveLive(coordinatorPattern, serverPattern, Network.get().getCoordinators());
+        }
+        catch(PatternSyntaxException e) {
+            sendMessage("Invalid pattern " + e.getPattern() + ": " + e.getDescription());
+        }
+        catch(PatternBudgetExceededException e) {
+            sendMessage("Pattern " + e.getPattern() + " is too expensive to match, giving up.");
+        }
+        return null;
     }
 
     private void runListPackagesCommand(String[] args) {
@@ -594,12 +775,12 @@ public class SlackPlugin extends AbstractPlugin implements INetworkListener, Sla
                 .compare(p1.getVersion(), p2.getVersion())
                 .result());
 
-        String result = "";
+        ReportBuilder result = reports.get().reset();
         for(P3Package.P3PackageInfo p3info : p3list) {
-            result += p3info.getId() + " (" + p3info.getVersion() + ")\n";
+            result.append(p3info.getId()).append(" (").append(p3info.getVersion()).append(")\n");
         }
 
-        sendMessage(result);
+        deliverReport(null, result, "Packages");
     }
 
     private void runListPluginsCommand(String[] args) {
@@ -609,12 +790,12 @@ public class SlackPlugin extends AbstractPlugin implements INetworkListener, Sla
             return;
         }
 
-        String result = "";
+        ReportBuilder result = reports.get().reset();
         for(IPlugin plugin : Network.get().getPluginManager().getPlugins().values()) {
-            result += plugin.getSchema().getId() + " (" + plugin.getSchema().getVersion() + ")\n";
+            result.append(plugin.getSchema().getId()).append(" (").append(plugin.getSchema().getVersion()).append(")\n");
         }
 
-        sendMessage(result);
+        deliverReport(null, result, "Plugins");
     }
 
     private void runPassCommand(String[] args) {
@@ -634,48 +815,34 @@ public class SlackPlugin extends AbstractPlugin implements INetworkListener, Sla
             return;
         }
 
-        sendMessage("One moment please...");
-
-        String result = "*Local Resources:*\n";
-
-        Map<String, Integer> totalResources = new HashMap<>();
-        Map<String, Integer> usedResources = new HashMap<>();
-        for(LocalCoordinator coord : Network.get().getCoordinators().values()) {
-            if(!coord.isEnabled())
-                continue;
-            result += "\t*" + coord.getName() + "*:\n";
-            Map<String, Integer> localResources = coord.getResources();
-            Map<String, Integer> usedLocalResources = coord.getAvailableResources();
-            for(Map.Entry<String, Integer> res : localResources.entrySet()) {
-                result += "\t\t" + res.getKey() + ": ";
-                totalResources.put(res.getKey(), totalResources.getOrDefault(res.getKey(), 0) + res.getValue());
-
-                if(usedLocalResources.containsKey(res.getKey())) {
-                    Integer value = usedLocalResources.get(res.getKey());
-                    value = res.getValue() - value;
-                    result += value + " / ";
-                    usedResources.put(res.getKey(), usedResources.getOrDefault(res.getKey(), 0) + value);
-                }
-                else
-                    result += "? / ";
+        ReportBuilder result = reports.get().reset();
+        resourceStats.reconcile(Network.get().getCoordinators());
+        resourceStats.appendTo(result);
+        deliverReport(null, result, "Resources");
+    }
 
-                result += res.getValue() + " used\n";
-            }
+    private void runMetricsCommand(String[] args) {
+        if(args.length != 2 && args.length != 3) {
+            sendMessage("Usage: @playpen metrics [prefix]\n" +
+                    "Shows the counters, gauges and latencies of the slack session and of this plugin, optionally " +
+                    "only those whose name starts with the prefix.");
+            return;
         }
 
-        result += "*Total Resources:*\n";
-        for(Map.Entry<String, Integer> res : totalResources.entrySet()) {
-            result += "\t" + res.getKey() + ": ";
-
-            if(usedResources.containsKey(res.getKey())) {
-                result += usedResources.get(res.getKey()) + " / ";
-            }
-            else
-                result += "? / ";
+        String prefix = args.length == 3 ? args[2] : "";
+        SlackMetrics metrics = session.getMetrics();
+        ReportBuilder result = reports.get().reset().append("*Metrics:*\n");
+        for(Map.Entry<String, Long> metric : metrics.snapshot().entrySet()) {
+            if(metric.getKey().startsWith(prefix))
+                result.append('\t').append(metric.getKey()).append(": ").append(metric.getValue().longValue()).append('\n');
+        }
 
-            result += res.getValue() + " used\n";
+        result.append("*Latencies:*\n");
+        for(Map.Entry<String, SlackLatencyHistogram> histogram : metrics.histograms().entrySet()) {
+            if(histogram.getKey().startsWith(prefix) && histogram.getValue().getCount() > 0)
+                result.append('\t').append(histogram.getKey()).append(": ").append(histogram.getValue()).append('\n');
         }
 
-        sendMessage(result);
+        deliverReport(null, result, "Metrics");
     }
 }
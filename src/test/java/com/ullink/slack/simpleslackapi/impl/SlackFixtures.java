@@ -0,0 +1,97 @@
+package com.ullink.slack.simpleslackapi.impl;
+
+import com.ullink.slack.simpleslackapi.SlackChannel;
+import com.ullink.slack.simpleslackapi.SlackMessage;
+import com.ullink.slack.simpleslackapi.SlackUser;
+
+/**
+ * Synthetic Slack objects and payloads shared by the tests and the benchmarks. It lives in the
+ * implementation package to reach the package-private constructors, and is public for the plugin
+ * tests and benchmarks.
+ */
+public final class SlackFixtures
+{
+    // websocket URL announced by the synthetic rtm.start answers
+    public static final String WEBSOCKET_URL = "wss://example.invalid/websocket";
+
+    private SlackFixtures()
+    {
+    }
+
+    public static SlackUser user(String id, String userName)
+    {
+        return new SlackUserImpl(id, userName, userName, userName + "@example.com", false);
+    }
+
+    public static SlackChannel channel(String id, String name)
+    {
+        return new SlackChannelImpl(id, name, null, null);
+    }
+
+    public static SlackMessage message(SlackChannel channel, SlackUser sender, String text)
+    {
+        return new SlackMessageImpl(text, null, sender, channel, SlackMessage.SlackMessageSubType.getByCode(null));
+    }
+
+    /**
+     * Builds an rtm.start answer laid out like the real one, with the given number of users, a
+     * bot for every hundred users and a channel for every fifty, each channel having ten members.
+     */
+    public static String sessionStatusPayload(int userCount)
+    {
+        StringBuilder json = new StringBuilder(userCount * 256);
+        json.append("{\"ok\":true,\"url\":\"").append(WEBSOCKET_URL).append("\",");
+        json.append("\"self\":{\"id\":\"U0\",\"name\":\"playpen\"},");
+        json.append("\"team\":{\"id\":\"T0\",\"name\":\"benchmark\",\"domain\":\"benchmark\"},");
+
+        json.append("\"users\":[");
+        for (int i = 0; i < userCount; i++)
+        {
+            if (i > 0)
+            {
+                json.append(',');
+            }
+            json.append("{\"id\":\"U").append(i).append("\",\"name\":\"user").append(i)
+                .append("\",\"deleted\":false,\"real_name\":\"User ").append(i)
+                .append("\",\"tz\":\"Europe/Paris\",\"is_admin\":false,\"is_bot\":false")
+                .append(",\"profile\":{\"first_name\":\"User\",\"last_name\":\"").append(i)
+                .append("\",\"email\":\"user").append(i).append("@example.com\",\"image_48\":\"https://example.invalid/")
+                .append(i).append(".png\"}}");
+        }
+        json.append("],");
+
+        json.append("\"bots\":[");
+        for (int i = 0; i < userCount / 100; i++)
+        {
+            if (i > 0)
+            {
+                json.append(',');
+            }
+            json.append("{\"id\":\"B").append(i).append("\",\"name\":\"bot").append(i)
+                .append("\",\"deleted\":false,\"icons\":{\"image_48\":\"https://example.invalid/b").append(i).append(".png\"}}");
+        }
+        json.append("],");
+
+        json.append("\"channels\":[");
+        for (int i = 0; i < Math.max(1, userCount / 50); i++)
+        {
+            if (i > 0)
+            {
+                json.append(',');
+            }
+            json.append("{\"id\":\"C").append(i).append("\",\"name\":\"channel").append(i)
+                .append("\",\"is_member\":true,\"topic\":{\"value\":\"topic\",\"creator\":\"U0\"},\"members\":[");
+            for (int j = 0; j < 10; j++)
+            {
+                if (j > 0)
+                {
+                    json.append(',');
+                }
+                json.append("\"U").append((i * 10 + j) % Math.max(1, userCount)).append('"');
+            }
+            json.append("]}");
+        }
+        json.append("],\"groups\":[],\"ims\":[]}");
+        return json.toString();
+    }
+}
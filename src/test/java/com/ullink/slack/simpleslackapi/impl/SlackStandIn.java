@@ -0,0 +1,328 @@
+package com.ullink.slack.simpleslackapi.impl;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.glassfish.tyrus.server.Server;
+
+import javax.websocket.CloseReason;
+import javax.websocket.OnClose;
+import javax.websocket.OnMessage;
+import javax.websocket.OnOpen;
+import javax.websocket.Session;
+import javax.websocket.server.PathParam;
+import javax.websocket.server.ServerEndpoint;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * In-process stand-in for Slack, serving the Web API methods a session calls and the RTM
+ * websocket on the loopback interface, so that sessions can be driven without a network. Point a
+ * session at it with {@code withApiBaseUrl(standIn.getApiBaseUrl())}.
+ * <p>
+ * The stand-in can be scripted while it runs: a latency added to every Web API call, a number of
+ * calls to a method answered with 429, a roster of any size, websockets closed from the server
+ * side and pings left unanswered.
+ */
+public class SlackStandIn implements AutoCloseable
+{
+    // the websocket endpoint is instantiated by the container, it finds its stand-in through this
+    private static final Map<String, SlackStandIn> STAND_INS      = new ConcurrentHashMap<>();
+
+    private static final Pattern                   TYPE_PATTERN   = Pattern.compile("\"type\"\\s*:\\s*\"([^\"]*)\"");
+    private static final Pattern                   ID_PATTERN     = Pattern.compile("\"id\"\\s*:\\s*(\\d+)");
+
+    private final String                           id             = UUID.randomUUID().toString();
+    private final HttpServer                       httpServer;
+    private final ExecutorService                  httpExecutor;
+    private final Server                           websocketServer;
+    private final int                              websocketPort;
+
+    private final Set<Session>                     sockets        = Collections.newSetFromMap(new ConcurrentHashMap<Session, Boolean>());
+    private final Map<String, AtomicLong>          calls          = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger>       rateLimited    = new ConcurrentHashMap<>();
+    private final AtomicLong                       timestamps     = new AtomicLong();
+
+    private volatile long                          latencyMillis  = 0;
+    private volatile long                          retryAfterSecs = 1;
+    private volatile boolean                       answerPings    = true;
+    private volatile byte[]                        rosterPayload;
+
+    public SlackStandIn() throws Exception
+    {
+        this(100);
+    }
+
+    public SlackStandIn(int rosterUsers) throws Exception
+    {
+        httpExecutor = Executors.newCachedThreadPool();
+        httpServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        httpServer.createContext("/api/", this::handleApiCall);
+        httpServer.setExecutor(httpExecutor);
+        httpServer.start();
+
+        websocketPort = freePort();
+        setRosterSize(rosterUsers);
+        websocketServer = new Server("127.0.0.1", websocketPort, "/", Collections.<String, Object>emptyMap(), RtmEndpoint.class);
+        STAND_INS.put(id, this);
+        try
+        {
+            websocketServer.start();
+        }
+        catch (Exception e)
+        {
+            close();
+            throw e;
+        }
+    }
+
+    private static int freePort() throws IOException
+    {
+        try (ServerSocket socket = new ServerSocket(0))
+        {
+            return socket.getLocalPort();
+        }
+    }
+
+    public String getApiBaseUrl()
+    {
+        return "http://127.0.0.1:" + httpServer.getAddress().getPort() + "/api/";
+    }
+
+    private String getWebSocketUrl()
+    {
+        return "ws://127.0.0.1:" + websocketPort + "/rtm/" + id;
+    }
+
+    /**
+     * Replaces the roster served by rtm.start with a synthetic one of that many users.
+     */
+    public void setRosterSize(int users)
+    {
+        String payload = SlackFixtures.sessionStatusPayload(users).replace(SlackFixtures.WEBSOCKET_URL, getWebSocketUrl());
+        rosterPayload = payload.getBytes(StandardCharsets.UTF_8);
+    }
+
+    // added to every Web API call before it is answered
+    public void setLatency(long latency, TimeUnit unit)
+    {
+        latencyMillis = unit.toMillis(latency);
+    }
+
+    /**
+     * Answers the next calls to the method with 429 Too Many Requests, asking to retry after the
+     * given delay.
+     */
+    public void rateLimit(String method, int calls, long retryAfter, TimeUnit unit)
+    {
+        retryAfterSecs = Math.max(1, unit.toSeconds(retryAfter));
+        rateLimited.computeIfAbsent(method, m -> new AtomicInteger()).set(calls);
+    }
+
+    // when disabled, pings are swallowed as if the link had silently died
+    public void setAnswerPings(boolean answerPings)
+    {
+        this.answerPings = answerPings;
+    }
+
+    /**
+     * Closes every websocket from the server side, as Slack does when it moves a team.
+     */
+    public void disconnectAll()
+    {
+        for (Session socket : sockets)
+        {
+            try
+            {
+                socket.close(new CloseReason(CloseReason.CloseCodes.GOING_AWAY, "stand-in disconnect"));
+            }
+            catch (IOException e)
+            {
+                // already gone
+            }
+        }
+    }
+
+    /**
+     * Sends an RTM event to every connected session.
+     */
+    public void push(String event)
+    {
+        for (Session socket : sockets)
+        {
+            socket.getAsyncRemote().sendText(event);
+        }
+    }
+
+    public int getConnectionCount()
+    {
+        return sockets.size();
+    }
+
+    // Web API calls received for the method, 429 answers included
+    public long getCallCount(String method)
+    {
+        AtomicLong count = calls.get(method);
+        return count == null ? 0 : count.get();
+    }
+
+    private void handleApiCall(HttpExchange exchange) throws IOException
+    {
+        try
+        {
+            String method = exchange.getRequestURI().getPath().substring("/api/".length());
+            calls.computeIfAbsent(method, m -> new AtomicLong()).incrementAndGet();
+            drain(exchange.getRequestBody());
+            if (latencyMillis > 0)
+            {
+                Thread.sleep(latencyMillis);
+            }
+
+            AtomicInteger limited = rateLimited.get(method);
+            if (limited != null && limited.getAndUpdate(n -> Math.max(0, n - 1)) > 0)
+            {
+                exchange.getResponseHeaders().set("Retry-After", String.valueOf(retryAfterSecs));
+                respond(exchange, 429, "{\"ok\":false,\"error\":\"ratelimited\"}");
+                return;
+            }
+
+            switch (method)
+            {
+                case "rtm.start":
+                    respond(exchange, 200, rosterPayload);
+                    break;
+                case "rtm.connect":
+                    respond(exchange, 200, "{\"ok\":true,\"url\":\"" + getWebSocketUrl() + "\",\"team\":{\"id\":\"T0\"},\"self\":{\"id\":\"U0\"}}");
+                    break;
+                case "chat.postMessage":
+                case "chat.update":
+                case "chat.delete":
+                case "files.upload":
+                    respond(exchange, 200, "{\"ok\":true,\"ts\":\"" + nextTimestamp() + "\"}");
+                    break;
+                default:
+                    respond(exchange, 200, "{\"ok\":false,\"error\":\"unknown_method\"}");
+                    break;
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            exchange.close();
+        }
+    }
+
+    private String nextTimestamp()
+    {
+        long millis = System.currentTimeMillis();
+        return (millis / 1000) + "." + String.format("%06d", timestamps.incrementAndGet() % 1000000);
+    }
+
+    private static void drain(InputStream in) throws IOException
+    {
+        byte[] buffer = new byte[4096];
+        while (in.read(buffer) != -1)
+        {
+            // the stand-in does not look at the form
+        }
+        in.close();
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException
+    {
+        respond(exchange, status, body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] bytes) throws IOException
+    {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody())
+        {
+            out.write(bytes);
+        }
+    }
+
+    private void onFrame(Session socket, String frame)
+    {
+        Matcher type = TYPE_PATTERN.matcher(frame);
+        Matcher id = ID_PATTERN.matcher(frame);
+        if (!type.find() || !id.find())
+        {
+            return;
+        }
+        if ("ping".equals(type.group(1)))
+        {
+            if (answerPings)
+            {
+                socket.getAsyncRemote().sendText("{\"type\":\"pong\",\"reply_to\":" + id.group(1) + "}");
+            }
+        }
+        else if ("message".equals(type.group(1)))
+        {
+            socket.getAsyncRemote().sendText("{\"ok\":true,\"reply_to\":" + id.group(1) + ",\"ts\":\"" + nextTimestamp() + "\"}");
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        STAND_INS.remove(id);
+        disconnectAll();
+        websocketServer.stop();
+        httpServer.stop(0);
+        httpExecutor.shutdownNow();
+    }
+
+    @ServerEndpoint("/rtm/{standIn}")
+    public static class RtmEndpoint
+    {
+        @OnOpen
+        public void onOpen(Session socket, @PathParam("standIn") String standInId) throws IOException
+        {
+            SlackStandIn standIn = STAND_INS.get(standInId);
+            if (standIn == null)
+            {
+                socket.close(new CloseReason(CloseReason.CloseCodes.CANNOT_ACCEPT, "unknown stand-in"));
+                return;
+            }
+            standIn.sockets.add(socket);
+            socket.getAsyncRemote().sendText("{\"type\":\"hello\"}");
+        }
+
+        @OnMessage
+        public void onMessage(Session socket, String frame, @PathParam("standIn") String standInId)
+        {
+            SlackStandIn standIn = STAND_INS.get(standInId);
+            if (standIn != null)
+            {
+                standIn.onFrame(socket, frame);
+            }
+        }
+
+        @OnClose
+        public void onClose(Session socket, @PathParam("standIn") String standInId)
+        {
+            SlackStandIn standIn = STAND_INS.get(standInId);
+            if (standIn != null)
+            {
+                standIn.sockets.remove(socket);
+            }
+        }
+    }
+}
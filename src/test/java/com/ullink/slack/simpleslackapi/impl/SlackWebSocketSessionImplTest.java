@@ -0,0 +1,87 @@
+package com.ullink.slack.simpleslackapi.impl;
+
+import com.ullink.slack.simpleslackapi.SlackChannel;
+import com.ullink.slack.simpleslackapi.SlackReply;
+import com.ullink.slack.simpleslackapi.SlackSession;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class SlackWebSocketSessionImplTest
+{
+    private SlackStandIn standIn;
+    private SlackSession session;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        standIn = new SlackStandIn();
+        session = SlackSessionFactory.getSlackSessionBuilder("xoxb-test")
+            .withApiBaseUrl(standIn.getApiBaseUrl())
+            .withReconnectBackoff(50, 500, TimeUnit.MILLISECONDS)
+            .build();
+        assertTrue(session.connect());
+        await(() -> standIn.getConnectionCount() == 1);
+    }
+
+    @After
+    public void tearDown()
+    {
+        session.disconnect();
+        standIn.close();
+    }
+
+    @Test
+    public void reconnectsWhenSlackDropsTheWebSocket() throws Exception
+    {
+        standIn.disconnectAll();
+
+        // a reconnection downloads the roster again before opening a new websocket
+        await(() -> standIn.getCallCount("rtm.start") == 2 && standIn.getConnectionCount() == 1);
+        assertEquals(0, standIn.getCallCount("rtm.connect"));
+    }
+
+    @Test
+    public void reconnectsAgainAfterEachDrop() throws Exception
+    {
+        for (int i = 2; i <= 4; i++)
+        {
+            final int starts = i;
+            standIn.disconnectAll();
+            await(() -> standIn.getCallCount("rtm.start") == starts && standIn.getConnectionCount() == 1);
+        }
+    }
+
+    @Test
+    public void retriesAfterTheDelaySlackAsksFor() throws Exception
+    {
+        SlackChannel channel = session.findChannelById("C1");
+        assertNotNull(channel);
+        standIn.rateLimit("chat.postMessage", 1, 1, TimeUnit.SECONDS);
+
+        long startedAt = System.nanoTime();
+        SlackReply reply = session.sendMessage(channel, "lobby-3 provisioned", null, "playpen", null).getReplyFuture().get(10, TimeUnit.SECONDS);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+
+        assertTrue(reply.isOk());
+        assertEquals(2, standIn.getCallCount("chat.postMessage"));
+        assertTrue("retried after " + elapsedMillis + " ms", elapsedMillis >= 1000);
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException
+    {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean())
+        {
+            assertTrue("condition not met within 10 seconds", System.nanoTime() < deadline);
+            Thread.sleep(20);
+        }
+    }
+}
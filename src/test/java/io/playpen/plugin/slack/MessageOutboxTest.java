@@ -0,0 +1,105 @@
+package io.playpen.plugin.slack;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MessageOutboxTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ScheduledExecutorService scheduler;
+    private Path file;
+
+    @Before
+    public void setUp() throws Exception {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        file = folder.getRoot().toPath().resolve("outbox.log");
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void replaysUnacknowledgedMessagesOnOpen() throws Exception {
+        MessageOutbox outbox = MessageOutbox.open(file, 4096, scheduler, 1000);
+        long first = outbox.append("lobby-1 provisioned", false);
+        long second = outbox.append("lobby-2 provisioned", false);
+        long third = outbox.append("lobby-3 provisioned", false);
+        assertTrue(first != MessageOutbox.NOT_LOGGED);
+        outbox.acknowledge(second);
+        outbox.close();
+
+        MessageOutbox reopened = MessageOutbox.open(file, 4096, scheduler, 1000);
+        List<MessageOutbox.Entry> pending = reopened.getPending();
+        assertEquals(2, pending.size());
+        assertEquals(new MessageOutbox.Entry(first, "lobby-1 provisioned"), pending.get(0));
+        assertEquals(new MessageOutbox.Entry(third, "lobby-3 provisioned"), pending.get(1));
+
+        // sequences keep growing, an ack can never hit a replayed message by mistake
+        assertTrue(reopened.append("lobby-4 provisioned", false) > third);
+        reopened.close();
+    }
+
+    @Test
+    public void forgetsAcknowledgedMessagesForGood() throws Exception {
+        MessageOutbox outbox = MessageOutbox.open(file, 4096, scheduler, 1000);
+        outbox.acknowledge(outbox.append("lobby-1 provisioned", false));
+        outbox.close();
+
+        MessageOutbox reopened = MessageOutbox.open(file, 4096, scheduler, 1000);
+        assertEquals(0, reopened.getPendingCount());
+        reopened.close();
+    }
+
+    @Test
+    public void survivesMoreMessagesThanItsInitialCapacity() throws Exception {
+        MessageOutbox outbox = MessageOutbox.open(file, 256, scheduler, 1000);
+        for(int i = 0; i < 100; ++i) {
+            assertTrue(outbox.append("lobby-" + i + " provisioned", true) != MessageOutbox.NOT_LOGGED);
+        }
+        outbox.close();
+
+        MessageOutbox reopened = MessageOutbox.open(file, 256, scheduler, 1000);
+        List<MessageOutbox.Entry> pending = reopened.getPending();
+        assertEquals(100, pending.size());
+        assertEquals("lobby-99 provisioned", pending.get(99).getText());
+        reopened.close();
+    }
+
+    @Test
+    public void dropsEverythingAfterATornRecord() throws Exception {
+        MessageOutbox outbox = MessageOutbox.open(file, 4096, scheduler, 1000);
+        outbox.append("lobby-1 provisioned", false);
+        outbox.append("lobby-2 provisioned", false);
+        outbox.close();
+
+        // flip a byte of the last payload, as a crash in the middle of a write would
+        try(RandomAccessFile raw = new RandomAccessFile(file.toFile(), "rw")) {
+            byte[] content = new byte[(int) raw.length()];
+            raw.readFully(content);
+            int at = new String(content, "ISO-8859-1").lastIndexOf("lobby-2");
+            raw.seek(at);
+            raw.write('X');
+        }
+
+        MessageOutbox reopened = MessageOutbox.open(file, 4096, scheduler, 1000);
+        List<MessageOutbox.Entry> pending = reopened.getPending();
+        assertEquals(1, pending.size());
+        assertEquals("lobby-1 provisioned", pending.get(0).getText());
+        reopened.close();
+    }
+}